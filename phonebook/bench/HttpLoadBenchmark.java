@@ -0,0 +1,114 @@
+import java.net.URI;
+import java.net.URLEncoder;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * Loopback load generator for PhoneBookHttpServer: closed-loop clients send single lookups by name
+ * and number, then batch lookups, and the latency of every request is reported as p50, p99 and p99.9.
+ *
+ * javac -cp src -d out src/*.java bench/HttpLoadBenchmark.java
+ * java -cp out HttpLoadBenchmark [contacts] [seconds per step] [clients] [numbers per batch]
+ */
+public class HttpLoadBenchmark {
+
+    public static void main(String[] args) throws Exception {
+        int size = args.length > 0 ? Integer.parseInt(args[0]) : 100_000;
+        int seconds = args.length > 1 ? Integer.parseInt(args[1]) : 5;
+        int clients = args.length > 2 ? Integer.parseInt(args[2]) : Runtime.getRuntime().availableProcessors() * 4;
+        int batch = args.length > 3 ? Integer.parseInt(args[3]) : 1000;
+
+        ContactStore contacts = new ContactStore();
+        for (int i = 0; i < size; i++) {
+            contacts.addNumber("Contact " + i, number(i));
+        }
+
+        try (PhoneBookHttpServer server = new PhoneBookHttpServer(contacts, 0)) {
+            server.start();
+            HttpClient client = HttpClient.newHttpClient();
+            String base = "http://127.0.0.1:" + server.port();
+
+            System.out.printf("%,d contacts, %d clients, %d cores%n", size, clients, Runtime.getRuntime().availableProcessors());
+            System.out.printf("%-8s %12s %10s %10s %10s %10s%n", "", "requests/s", "p50 us", "p99 us", "p99.9 us", "max us");
+
+            // a first short round only warms up the server and the client
+            run(client, clients, 1, random -> single(base, size, random));
+            report("get", run(client, clients, seconds, random -> single(base, size, random)), seconds);
+            report("batch", run(client, clients, seconds, random -> batch(base, size, batch, random)), seconds);
+        }
+    }
+
+    private static String number(int i) {
+        return "+44 20 " + (1_000_000 + i);
+    }
+
+    private static HttpRequest single(String base, int size, Random random) {
+        int i = random.nextInt(size);
+        String path = random.nextBoolean() ? "/contacts/" + encode("Contact " + i) : "/numbers/" + encode(number(i));
+        return HttpRequest.newBuilder(URI.create(base + path)).build();
+    }
+
+    private static HttpRequest batch(String base, int size, int count, Random random) {
+        StringBuilder body = new StringBuilder(count * 16);
+        for (int i = 0; i < count; i++) {
+            body.append(number(random.nextInt(size))).append('\n');
+        }
+        return HttpRequest.newBuilder(URI.create(base + "/numbers"))
+                .POST(HttpRequest.BodyPublishers.ofString(body.toString())).build();
+    }
+
+    private static String encode(String segment) {
+        return URLEncoder.encode(segment, StandardCharsets.UTF_8).replace("+", "%20");
+    }
+
+    private interface RequestFactory {
+        HttpRequest next(Random random);
+    }
+
+    private static LatencyHistogram run(HttpClient client, int clients, int seconds, RequestFactory requests)
+            throws InterruptedException {
+        AtomicBoolean running = new AtomicBoolean(true);
+        LatencyHistogram latencies = new LatencyHistogram();
+        List<Thread> threads = new ArrayList<>();
+        for (int c = 0; c < clients; c++) {
+            int seed = c;
+            Thread thread = new Thread(() -> {
+                Random random = new Random(seed);
+                try {
+                    while (running.get()) {
+                        HttpRequest request = requests.next(random);
+                        long start = System.nanoTime();
+                        HttpResponse<Void> response = client.send(request, HttpResponse.BodyHandlers.discarding());
+                        latencies.record(System.nanoTime() - start);
+                        if (response.statusCode() != 200) {
+                            throw new IllegalStateException("HTTP " + response.statusCode() + " for " + request.uri());
+                        }
+                    }
+                } catch (Exception ex) {
+                    System.err.println(ex.getMessage());
+                }
+            });
+            threads.add(thread);
+            thread.start();
+        }
+
+        Thread.sleep(seconds * 1000L);
+        running.set(false);
+        for (Thread thread : threads) {
+            thread.join();
+        }
+        return latencies;
+    }
+
+    private static void report(String name, LatencyHistogram latencies, int seconds) {
+        System.out.printf("%-8s %12.0f %10.1f %10.1f %10.1f %10.1f%n", name, (double) latencies.count() / seconds,
+                latencies.percentile(0.5) / 1e3, latencies.percentile(0.99) / 1e3,
+                latencies.percentile(0.999) / 1e3, latencies.max() / 1e3);
+    }
+}
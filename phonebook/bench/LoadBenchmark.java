@@ -0,0 +1,95 @@
+import java.io.*;
+import java.lang.management.ManagementFactory;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.*;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * Startup-time benchmark comparing the old regex based contacts.csv loader with ContactCsvReader.
+ *
+ * javac -cp src -d out src/*.java bench/LoadBenchmark.java
+ * java -Xmx8g -cp out LoadBenchmark [lines] [runs]
+ */
+public class LoadBenchmark {
+
+    public static void main(String[] args) throws IOException {
+        int lines = args.length > 0 ? Integer.parseInt(args[0]) : 10_000_000;
+        int runs = args.length > 1 ? Integer.parseInt(args[1]) : 3;
+
+        Path file = Files.createTempFile("contacts", ".csv");
+        file.toFile().deleteOnExit();
+        generate(file, lines);
+        System.out.printf("Generated %,d lines (%,d bytes) in %s%n", lines, Files.size(file), file);
+
+        for (int run = 1; run <= runs; run++) {
+            measure("regex loader   ", run, () -> {
+                Map<String, List<String>> contacts = new TreeMap<>();
+                loadWithRegex(file, contacts);
+                return contacts.size();
+            });
+            measure("stream loader  ", run, () -> {
+                Map<String, List<String>> contacts = new TreeMap<>();
+                new ContactCsvReader(file).read((name, number) ->
+                        contacts.computeIfAbsent(name, key -> new ArrayList<>()).add(number));
+                return contacts.size();
+            });
+            // the path startup takes
+            measure("stream -> store", run, () -> {
+                ContactStore contacts = new ContactStore();
+                new ContactCsvReader(file).readPartials(contacts::addAll);
+                return contacts.size();
+            });
+        }
+    }
+
+    interface Load {
+        int run() throws IOException;
+    }
+
+    private static void measure(String label, int run, Load load) throws IOException {
+        System.gc();
+        com.sun.management.ThreadMXBean threads = (com.sun.management.ThreadMXBean) ManagementFactory.getThreadMXBean();
+        long allocatedBefore = threads.getCurrentThreadAllocatedBytes();
+        long start = System.nanoTime();
+        int contacts = load.run();
+        long elapsed = System.nanoTime() - start;
+        long allocated = threads.getCurrentThreadAllocatedBytes() - allocatedBefore;
+
+        System.out.printf("%s run %d: %,8d ms, %,d contacts, %,d bytes allocated (%.1f per contact)%n",
+                label, run, elapsed / 1_000_000, contacts, allocated, (double) allocated / contacts);
+    }
+
+    static void generate(Path file, int lines) throws IOException {
+        Random random = new Random(42);
+        try (BufferedWriter writer = Files.newBufferedWriter(file, StandardCharsets.UTF_8)) {
+            for (int i = 0; i < lines; i++) {
+                writer.write("Contact ");
+                writer.write(Integer.toString(i));
+                writer.write(",\"+44 20 ");
+                writer.write(Integer.toString(1_000_000 + random.nextInt(9_000_000)));
+                if (random.nextInt(4) == 0) {
+                    writer.write(", 07");
+                    writer.write(Integer.toString(100_000_000 + random.nextInt(900_000_000)));
+                }
+                writer.write("\"\n");
+            }
+        }
+    }
+
+    private static void loadWithRegex(Path file, Map<String, List<String>> contacts) throws IOException {
+        try (BufferedReader reader = new BufferedReader(new FileReader(file.toFile()))) {
+            Pattern pattern = Pattern.compile("^([^,\"]{2,50}),\"([0-9+, ]+)\"$");
+            String line;
+            while ((line = reader.readLine()) != null) {
+                Matcher matcher = pattern.matcher(line);
+                if (matcher.find()) {
+                    String[] numbers = matcher.group(2).split(",\\s*");
+                    contacts.put(matcher.group(1), Arrays.asList(numbers));
+                }
+            }
+        }
+    }
+}
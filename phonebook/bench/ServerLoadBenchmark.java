@@ -0,0 +1,95 @@
+import java.io.*;
+import java.net.InetAddress;
+import java.net.Socket;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Loopback load generator for PhoneBookServer: runs show/find clients at increasing concurrency
+ * against an embedded server and reports throughput per client count.
+ *
+ * javac -cp src -d out src/*.java bench/ServerLoadBenchmark.java
+ * java -cp out ServerLoadBenchmark [contacts] [seconds per step] [max clients]
+ */
+public class ServerLoadBenchmark {
+
+    public static void main(String[] args) throws Exception {
+        int size = args.length > 0 ? Integer.parseInt(args[0]) : 100_000;
+        int seconds = args.length > 1 ? Integer.parseInt(args[1]) : 3;
+        int maxClients = args.length > 2 ? Integer.parseInt(args[2]) : Runtime.getRuntime().availableProcessors() * 2;
+
+        ContactStore contacts = new ContactStore();
+        for (int i = 0; i < size; i++) {
+            contacts.addNumber("Contact " + i, number(i));
+        }
+
+        try (PhoneBookServer server = new PhoneBookServer(contacts, 0)) {
+            Thread acceptor = new Thread(() -> {
+                try {
+                    server.serve();
+                } catch (IOException ioex) {
+                    System.err.println(ioex.getMessage());
+                }
+            });
+            acceptor.setDaemon(true);
+            acceptor.start();
+
+            System.out.printf("%,d contacts, %d cores%n", size, Runtime.getRuntime().availableProcessors());
+            double single = 0;
+            for (int clients = 1; clients <= maxClients; clients *= 2) {
+                double throughput = run(server.port(), clients, seconds, size);
+                if (clients == 1) {
+                    single = throughput;
+                }
+                System.out.printf("%3d clients: %,12.0f requests/s (%.1fx)%n", clients, throughput, throughput / single);
+            }
+        }
+    }
+
+    private static String number(int i) {
+        return "+44 20 " + (1_000_000 + i);
+    }
+
+    private static double run(int port, int clients, int seconds, int size) throws InterruptedException {
+        AtomicBoolean running = new AtomicBoolean(true);
+        LongAdder requests = new LongAdder();
+        List<Thread> threads = new ArrayList<>();
+        for (int c = 0; c < clients; c++) {
+            int seed = c;
+            Thread thread = new Thread(() -> {
+                Random random = new Random(seed);
+                try (Socket socket = new Socket(InetAddress.getLoopbackAddress(), port);
+                     BufferedReader in = new BufferedReader(new InputStreamReader(socket.getInputStream(), StandardCharsets.UTF_8));
+                     PrintWriter out = new PrintWriter(new OutputStreamWriter(socket.getOutputStream(), StandardCharsets.UTF_8))) {
+                    socket.setTcpNoDelay(true);
+                    while (running.get()) {
+                        int i = random.nextInt(size);
+                        out.println(random.nextBoolean() ? "show Contact " + i : "find " + number(i));
+                        out.flush();
+                        String line;
+                        while ((line = in.readLine()) != null && !line.equals(".")) {
+                            // drain the response
+                        }
+                        requests.increment();
+                    }
+                } catch (IOException ioex) {
+                    System.err.println(ioex.getMessage());
+                }
+            });
+            threads.add(thread);
+            thread.start();
+        }
+
+        long start = System.nanoTime();
+        Thread.sleep(seconds * 1000L);
+        running.set(false);
+        for (Thread thread : threads) {
+            thread.join();
+        }
+        return requests.sum() / ((System.nanoTime() - start) / 1e9);
+    }
+}
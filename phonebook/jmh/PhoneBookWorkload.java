@@ -0,0 +1,44 @@
+import java.io.IOException;
+import java.nio.file.Path;
+import java.util.List;
+import java.util.Set;
+
+/**
+ * {@link phonebook.jmh.Workload} over the real phone book classes, for the JMH benchmarks.
+ */
+public class PhoneBookWorkload implements phonebook.jmh.Workload {
+
+    @Override
+    public void generate(Path file, int size) throws IOException {
+        LoadBenchmark.generate(file, size);
+    }
+
+    @Override
+    public Object load(Path file) throws IOException {
+        ContactStore contacts = new ContactStore();
+        new ContactCsvReader(file).readPartials(contacts::addAll);
+        return contacts;
+    }
+
+    @Override
+    public void save(Object contacts, Path file) throws IOException {
+        if (!PhoneBook.saveContacts(file.toString(), ((ContactStore) contacts).entries())) {
+            throw new IOException("Could not save " + file);
+        }
+    }
+
+    @Override
+    public List<String> numbers(Object contacts, String name) {
+        return ((ContactStore) contacts).numbers(name);
+    }
+
+    @Override
+    public Set<String> owners(Object contacts, String number) {
+        return ((ContactStore) contacts).owners(number);
+    }
+
+    @Override
+    public String page(Object contacts, String from) {
+        return LineCommands.page((ContactStore) contacts, "from " + from);
+    }
+}
@@ -0,0 +1,95 @@
+package phonebook.jmh;
+
+import org.openjdk.jmh.annotations.*;
+import org.openjdk.jmh.infra.Blackhole;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Regression benchmarks for the core phone book operations on synthetic books of several sizes:
+ * loading contacts.csv through ContactCsvReader.readPartials into ContactStore.addAll as startup does,
+ * saving it, lookup by name, reverse lookup by number and listing a page.
+ *
+ * mvn -B -Pjmh package
+ * java -jar target/benchmarks.jar -prof gc
+ * java -jar target/benchmarks.jar -p size=10000000 -jvmArgs -Xmx8g -prof gc PhoneBookBenchmark.load
+ */
+@State(Scope.Benchmark)
+@Fork(value = 2, jvmArgsAppend = "-Xmx4g")
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+public class PhoneBookBenchmark {
+
+    private static final int SAMPLES = 4096;
+
+    @Param({"10000", "1000000"})
+    public int size;
+
+    private Workload book;
+    private Path file;
+    private Path saved;
+    private Object contacts;
+    private final String[] names = new String[SAMPLES];
+    private final String[] numbers = new String[SAMPLES];
+    private int next;
+
+    @Setup(Level.Trial)
+    public void setUp() throws Exception {
+        book = (Workload) Class.forName("PhoneBookWorkload").getDeclaredConstructor().newInstance();
+        file = Files.createTempFile("contacts", ".csv");
+        saved = Files.createTempFile("contacts", ".csv");
+        book.generate(file, size);
+        contacts = book.load(file);
+
+        Random random = new Random(7);
+        for (int i = 0; i < SAMPLES; i++) {
+            names[i] = "Contact " + random.nextInt(size);
+            List<String> owned = book.numbers(contacts, names[i]);
+            numbers[i] = owned.get(random.nextInt(owned.size()));
+        }
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() throws IOException {
+        Files.deleteIfExists(file);
+        Files.deleteIfExists(saved);
+    }
+
+    private int sample() {
+        return next++ & (SAMPLES - 1);
+    }
+
+    @Benchmark
+    @BenchmarkMode(Mode.AverageTime)
+    @OutputTimeUnit(TimeUnit.MILLISECONDS)
+    public Object load() throws IOException {
+        return book.load(file);
+    }
+
+    @Benchmark
+    @BenchmarkMode(Mode.AverageTime)
+    @OutputTimeUnit(TimeUnit.MILLISECONDS)
+    public void save() throws IOException {
+        book.save(contacts, saved);
+    }
+
+    @Benchmark
+    public void show(Blackhole blackhole) {
+        blackhole.consume(book.numbers(contacts, names[sample()]));
+    }
+
+    @Benchmark
+    public void find(Blackhole blackhole) {
+        blackhole.consume(book.owners(contacts, numbers[sample()]));
+    }
+
+    @Benchmark
+    public void list(Blackhole blackhole) {
+        blackhole.consume(book.page(contacts, names[sample()]));
+    }
+}
@@ -0,0 +1,29 @@
+package phonebook.jmh;
+
+import java.io.IOException;
+import java.nio.file.Path;
+import java.util.List;
+import java.util.Set;
+
+/**
+ * The phone book paths the benchmarks measure. The phone book classes live in the default package,
+ * which named packages cannot import, so {@code PhoneBookWorkload} implements this next to them and
+ * the benchmarks load it by name once per trial. Stores are passed around as plain objects.
+ */
+public interface Workload {
+
+    void generate(Path file, int size) throws IOException;
+
+    /**
+     * Loads a contacts.csv into a new store the way the phone book does on startup.
+     */
+    Object load(Path file) throws IOException;
+
+    void save(Object contacts, Path file) throws IOException;
+
+    List<String> numbers(Object contacts, String name);
+
+    Set<String> owners(Object contacts, String number);
+
+    String page(Object contacts, String from);
+}
@@ -0,0 +1,148 @@
+import java.io.*;
+import java.nio.file.Files;
+import java.nio.file.Path;
+
+/**
+ * Bloom filter over contact names, normalized numbers and name collation keys, used to answer most misses without
+ * touching the real index. It never forgets a key, so removed contacts only cost a few false
+ * positives until the next rebuild.
+ */
+public class BloomFilter {
+
+    static final char NAME = 'N';
+    static final char NUMBER = '#';
+    static final char COLLATION = 'K';
+
+    private static final int MAGIC = 0x50424246;
+    private static final double FALSE_POSITIVES = 0.01;
+
+    private final long[] bits;
+    private final int hashes;
+    private final long capacity;
+    private long count;
+
+    BloomFilter(long capacity) {
+        this.capacity = Math.max(capacity, 1024);
+        // optimal size for the target rate is -n ln p / (ln 2)^2 bits and (m / n) ln 2 hash functions
+        long size = (long) Math.ceil(-this.capacity * Math.log(FALSE_POSITIVES) / (Math.log(2) * Math.log(2)));
+        this.bits = new long[(int) Math.min((size + 63) / 64, Integer.MAX_VALUE - 8)];
+        this.hashes = Math.max(1, (int) Math.round((double) bits.length * 64 / this.capacity * Math.log(2)));
+    }
+
+    private BloomFilter(long[] bits, int hashes, long capacity, long count) {
+        this.bits = bits;
+        this.hashes = hashes;
+        this.capacity = capacity;
+        this.count = count;
+    }
+
+    void add(char kind, String key) {
+        add(hash(kind, key));
+    }
+
+    void add(char kind, byte[] key) {
+        add(hash(kind, key));
+    }
+
+    private void add(long hash) {
+        long step = mix(hash) | 1;
+        long size = (long) bits.length * 64;
+        for (int i = 0; i < hashes; i++) {
+            long bit = Math.floorMod(hash + i * step, size);
+            bits[(int) (bit >>> 6)] |= 1L << bit;
+        }
+        count++;
+    }
+
+    boolean mightContain(char kind, String key) {
+        return mightContain(hash(kind, key));
+    }
+
+    boolean mightContain(char kind, byte[] key) {
+        return mightContain(hash(kind, key));
+    }
+
+    private boolean mightContain(long hash) {
+        long step = mix(hash) | 1;
+        long size = (long) bits.length * 64;
+        for (int i = 0; i < hashes; i++) {
+            long bit = Math.floorMod(hash + i * step, size);
+            if ((bits[(int) (bit >>> 6)] & 1L << bit) == 0) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * True once more keys went in than the filter was sized for, so its false positive rate is climbing.
+     */
+    boolean isFull() {
+        return count > capacity;
+    }
+
+    long capacity() {
+        return capacity;
+    }
+
+    // 64-bit FNV-1a over the kind and the key, finished with the murmur3 mixer
+    private static long hash(char kind, String key) {
+        long hash = 0xcbf29ce484222325L;
+        hash = (hash ^ kind) * 0x100000001b3L;
+        for (int i = 0; i < key.length(); i++) {
+            hash = (hash ^ key.charAt(i)) * 0x100000001b3L;
+        }
+        return mix(hash);
+    }
+
+    private static long hash(char kind, byte[] key) {
+        long hash = 0xcbf29ce484222325L;
+        hash = (hash ^ kind) * 0x100000001b3L;
+        for (byte b : key) {
+            hash = (hash ^ (b & 0xFF)) * 0x100000001b3L;
+        }
+        return mix(hash);
+    }
+
+    private static long mix(long hash) {
+        hash ^= hash >>> 33;
+        hash *= 0xff51afd7ed558ccdL;
+        hash ^= hash >>> 33;
+        hash *= 0xc4ceb9fe1a85ec53L;
+        return hash ^ (hash >>> 33);
+    }
+
+    void write(Path path) throws IOException {
+        Path temp = path.resolveSibling(path.getFileName() + ".tmp");
+        try (FileOutputStream file = new FileOutputStream(temp.toFile());
+             DataOutputStream out = new DataOutputStream(new BufferedOutputStream(file, 1 << 16))) {
+            out.writeInt(MAGIC);
+            out.writeInt(hashes);
+            out.writeLong(capacity);
+            out.writeLong(count);
+            out.writeInt(bits.length);
+            for (long word : bits) {
+                out.writeLong(word);
+            }
+            out.flush();
+            file.getFD().sync();
+        }
+        PhoneBook.replaceFile(temp, path);
+    }
+
+    static BloomFilter read(Path path) throws IOException {
+        try (DataInputStream in = new DataInputStream(new BufferedInputStream(Files.newInputStream(path), 1 << 16))) {
+            if (in.readInt() != MAGIC) {
+                throw new IOException("Not a phone book filter: " + path);
+            }
+            int hashes = in.readInt();
+            long capacity = in.readLong();
+            long count = in.readLong();
+            long[] bits = new long[in.readInt()];
+            for (int i = 0; i < bits.length; i++) {
+                bits[i] = in.readLong();
+            }
+            return new BloomFilter(bits, hashes, capacity, count);
+        }
+    }
+}
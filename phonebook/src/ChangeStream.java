@@ -0,0 +1,142 @@
+import java.io.*;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.util.List;
+import java.util.function.Consumer;
+
+/**
+ * Ordered, never compacted stream of phone book changes for downstream copies of the directory, read
+ * straight from the {@link ContactJournal}. Each change is a journal record
+ * {@code <sequence>\t<kind>\t<name>[\t<number>]} with sequence numbers counting up from 1, so a
+ * consumer can ask for everything after the last sequence it applied. Kinds are the journal ops,
+ * with {@link ContactJournal#ADD_CONTACT} for the first number of a new contact.
+ *
+ * Only records a journal sync has made durable are served, so a consumer never sees a change that a
+ * crash could still take back.
+ */
+public class ChangeStream {
+
+    private static final int BLOCK = 1 << 12;
+
+    private final ContactJournal journal;
+
+    ChangeStream(ContactJournal journal) {
+        this.journal = journal;
+    }
+
+    long sequence() {
+        return journal.sequence();
+    }
+
+    /**
+     * Hands up to {@code limit} records following sequence {@code after} to {@code records} in order,
+     * and returns the sequence of the last one, or {@code after} when there is nothing newer.
+     */
+    long read(long after, int limit, Consumer<String> records) throws IOException {
+        List<ContactJournal.Segment> segments = journal.segments(after);
+        long last = after;
+        int read = 0;
+        try {
+            for (ContactJournal.Segment segment : segments) {
+                if (read == limit) {
+                    break;
+                }
+                long start = find(segment, after);
+                segment.channel.position(start);
+                InputStream bounded = new BufferedInputStream(Channels.newInputStream(segment.channel), 1 << 16);
+                BufferedReader in = new BufferedReader(new InputStreamReader(new LimitedInputStream(bounded, segment.end - start), StandardCharsets.UTF_8));
+                String line;
+                while (read < limit && (line = in.readLine()) != null) {
+                    int tab = line.indexOf('\t');
+                    // records from before sequence numbers were kept are not part of the stream
+                    if (tab < 0 || !ContactJournal.isSequence(line.substring(0, tab))) {
+                        continue;
+                    }
+                    long sequence = Long.parseLong(line.substring(0, tab));
+                    if (sequence > last) {
+                        records.accept(line);
+                        last = sequence;
+                        read++;
+                    }
+                }
+            }
+        } finally {
+            for (ContactJournal.Segment segment : segments) {
+                segment.close();
+            }
+        }
+        return last;
+    }
+
+    // binary search over byte offsets for the start of the first record after sequence after
+    private static long find(ContactJournal.Segment segment, long after) throws IOException {
+        long low = 0;
+        long high = segment.end;
+        while (low < high) {
+            long mid = (low + high) >>> 1;
+            long start = nextLineStart(segment, mid);
+            if (start >= segment.end || ContactJournal.sequenceAt(segment.channel, start) > after) {
+                high = mid;
+            } else {
+                low = mid + 1;
+            }
+        }
+        return nextLineStart(segment, low);
+    }
+
+    private static long nextLineStart(ContactJournal.Segment segment, long offset) throws IOException {
+        if (offset == 0) {
+            return 0;
+        }
+        long position = offset - 1;
+        ByteBuffer block = ByteBuffer.allocate(BLOCK);
+        while (position < segment.end) {
+            block.clear();
+            block.limit((int) Math.min(BLOCK, segment.end - position));
+            ContactJournal.readFully(segment.channel, block, position);
+            for (int i = 0; i < block.limit(); i++) {
+                if (block.get(i) == '\n') {
+                    return position + i + 1;
+                }
+            }
+            position += block.limit();
+        }
+        return segment.end;
+    }
+
+    // stops at the durable end captured when the read started, so a record being appended is never read
+    private static final class LimitedInputStream extends FilterInputStream {
+        private long remaining;
+
+        LimitedInputStream(InputStream in, long remaining) {
+            super(in);
+            this.remaining = remaining;
+        }
+
+        @Override
+        public int read() throws IOException {
+            if (remaining <= 0) {
+                return -1;
+            }
+            int b = super.read();
+            if (b >= 0) {
+                remaining--;
+            }
+            return b;
+        }
+
+        @Override
+        public int read(byte[] buffer, int offset, int length) throws IOException {
+            if (remaining <= 0) {
+                return -1;
+            }
+            int read = super.read(buffer, offset, (int) Math.min(length, remaining));
+            if (read > 0) {
+                remaining -= read;
+            }
+            return read;
+        }
+    }
+}
@@ -0,0 +1,519 @@
+import java.io.*;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.*;
+import java.util.zip.DataFormatException;
+import java.util.zip.Deflater;
+import java.util.zip.Inflater;
+
+/**
+ * Read-only phone book in a compressed block file, a fraction of the size of contacts.csv.
+ *
+ * Contacts sorted by name are cut into blocks of about 64 KB, each deflated on its own. Inside a
+ * block every name is stored as the length it shares with the previous name plus the rest, and every
+ * number as the prefix it shares with the previous number plus the rest packed in nibbles, as in
+ * {@link NumberArena}. A second run of blocks holds (normalized number, name) pairs sorted by number
+ * for reverse lookups, coded the same way.
+ *
+ * Layout: a 32 byte header (magic, version, contact count, name and number block counts, index offset),
+ * the blocks, then the sparse index of every block's first key, offset and stored and raw sizes, which
+ * is kept in memory so a lookup inflates a single block.
+ */
+public class ContactBlocks implements ContactSource, Closeable {
+
+    private static final int MAGIC = 0x50424C4B;
+    private static final int VERSION = 1;
+    private static final int HEADER_SIZE = 32;
+    private static final int BLOCK_SIZE = 1 << 16;
+
+    private final FileChannel channel;
+    private final long contactCount;
+    private final Index names;
+    private final Index numbers;
+
+    private static final class Index {
+        final String[] firstKeys;
+        final long[] offsets;
+        final int[] storedSizes;
+        final int[] rawSizes;
+
+        Index(int blocks) {
+            firstKeys = new String[blocks];
+            offsets = new long[blocks];
+            storedSizes = new int[blocks];
+            rawSizes = new int[blocks];
+        }
+
+        int size() {
+            return firstKeys.length;
+        }
+
+        // index of the first block whose first key is not less than key
+        int lowerBound(String key) {
+            int low = 0;
+            int high = firstKeys.length;
+            while (low < high) {
+                int mid = (low + high) >>> 1;
+                if (firstKeys[mid].compareTo(key) < 0) {
+                    low = mid + 1;
+                } else {
+                    high = mid;
+                }
+            }
+            return low;
+        }
+    }
+
+    private ContactBlocks(FileChannel channel) throws IOException {
+        this.channel = channel;
+        if (channel.size() < HEADER_SIZE) {
+            throw new IOException("Not a phone book block file");
+        }
+        ByteBuffer header = ByteBuffer.allocate(HEADER_SIZE);
+        readFully(header, 0);
+        header.flip();
+        if (header.getInt() != MAGIC || header.getInt() != VERSION) {
+            throw new IOException("Not a phone book block file");
+        }
+        contactCount = header.getLong();
+        names = new Index(header.getInt());
+        numbers = new Index(header.getInt());
+        long indexOffset = header.getLong();
+
+        // the index is a few dozen bytes per block, it is read whole
+        ByteBuffer index = ByteBuffer.allocate((int) (channel.size() - indexOffset));
+        readFully(index, indexOffset);
+        DataInputStream in = new DataInputStream(new ByteArrayInputStream(index.array()));
+        readIndex(in, names);
+        readIndex(in, numbers);
+    }
+
+    private static void readIndex(DataInputStream in, Index index) throws IOException {
+        for (int i = 0; i < index.size(); i++) {
+            byte[] key = new byte[in.readInt()];
+            in.readFully(key);
+            index.firstKeys[i] = new String(key, StandardCharsets.UTF_8);
+            index.offsets[i] = in.readLong();
+            index.storedSizes[i] = in.readInt();
+            index.rawSizes[i] = in.readInt();
+        }
+    }
+
+    static ContactBlocks open(Path path) throws IOException {
+        FileChannel channel = FileChannel.open(path, StandardOpenOption.READ);
+        try {
+            return new ContactBlocks(channel);
+        } catch (IOException | RuntimeException failed) {
+            channel.close();
+            throw failed;
+        }
+    }
+
+    /**
+     * Writes the contacts into a block file at {@code path} and returns its size in bytes.
+     */
+    static long write(Path path, ContactSource contacts) throws IOException {
+        Path temp = path.resolveSibling(path.getFileName() + ".tmp");
+        long size;
+        try (FileOutputStream file = new FileOutputStream(temp.toFile());
+             BlockWriter out = new BlockWriter(new DataOutputStream(new BufferedOutputStream(file, 1 << 16)))) {
+            out.write(new byte[HEADER_SIZE]);
+
+            // numbers go into their own sorted run, each as its normalized form, a NUL and the owner
+            List<String> owned = new ArrayList<>();
+            long count = 0;
+            String previousName = "";
+            String previousNumber = "";
+            for (Map.Entry<String, List<String>> entry : contacts.entries()) {
+                String name = entry.getKey();
+                List<String> list = entry.getValue();
+                if (out.startBlock(name)) {
+                    previousName = "";
+                    previousNumber = "";
+                }
+                frontCode(out.block, previousName, name);
+                writeVarint(out.block, list.size());
+                for (String number : list) {
+                    writeNibbles(out.block, previousNumber, number);
+                    previousNumber = number;
+                    owned.add(ContactStore.normalize(number) + '\0' + name);
+                }
+                previousName = name;
+                out.endEntry();
+                count++;
+            }
+            int nameBlocks = out.finishRun();
+
+            String[] pairs = owned.toArray(new String[0]);
+            Arrays.parallelSort(pairs);
+            String previousKey = "";
+            for (String pair : pairs) {
+                int split = pair.indexOf('\0');
+                String key = pair.substring(0, split);
+                if (out.startBlock(key)) {
+                    previousKey = "";
+                }
+                writeNibbles(out.block, previousKey, key);
+                byte[] name = pair.substring(split + 1).getBytes(StandardCharsets.UTF_8);
+                writeVarint(out.block, name.length);
+                out.block.writeBytes(name);
+                previousKey = key;
+                out.endEntry();
+            }
+            int numberBlocks = out.finishRun();
+
+            long indexOffset = out.writeIndex();
+            out.flush();
+            size = out.written;
+
+            ByteBuffer header = ByteBuffer.allocate(HEADER_SIZE);
+            header.putInt(MAGIC).putInt(VERSION).putLong(count).putInt(nameBlocks).putInt(numberBlocks).putLong(indexOffset);
+            header.flip();
+            FileChannel channel = file.getChannel();
+            while (header.hasRemaining()) {
+                channel.write(header, header.position());
+            }
+            file.getFD().sync();
+        }
+        PhoneBook.replaceFile(temp, path);
+        return size;
+    }
+
+    // collects entries into a block and deflates it once it reaches BLOCK_SIZE
+    private static final class BlockWriter implements Closeable {
+        final ByteArrayOutputStream block = new ByteArrayOutputStream(BLOCK_SIZE + 1024);
+        private final DataOutputStream out;
+        private final Deflater deflater = new Deflater();
+        private final byte[] buffer = new byte[BLOCK_SIZE];
+        private final List<String> firstKeys = new ArrayList<>();
+        private final List<long[]> blocks = new ArrayList<>();
+        private int runStart;
+        private String firstKey;
+        long written;
+
+        BlockWriter(DataOutputStream out) {
+            this.out = out;
+        }
+
+        void write(byte[] bytes) throws IOException {
+            out.write(bytes);
+            written += bytes.length;
+        }
+
+        // returns true when key opens a new block, so the caller restarts its front coding
+        boolean startBlock(String key) {
+            if (firstKey != null) {
+                return false;
+            }
+            firstKey = key;
+            return true;
+        }
+
+        void endEntry() throws IOException {
+            if (block.size() >= BLOCK_SIZE) {
+                flushBlock();
+            }
+        }
+
+        private void flushBlock() throws IOException {
+            if (firstKey == null) {
+                return;
+            }
+            byte[] raw = block.toByteArray();
+            deflater.reset();
+            deflater.setInput(raw);
+            deflater.finish();
+            long offset = written;
+            int stored = 0;
+            while (!deflater.finished()) {
+                int length = deflater.deflate(buffer);
+                out.write(buffer, 0, length);
+                stored += length;
+            }
+            written += stored;
+            firstKeys.add(firstKey);
+            blocks.add(new long[]{offset, stored, raw.length});
+            block.reset();
+            firstKey = null;
+        }
+
+        // closes the current run of blocks and returns how many it holds
+        int finishRun() throws IOException {
+            flushBlock();
+            int count = blocks.size() - runStart;
+            runStart = blocks.size();
+            return count;
+        }
+
+        long writeIndex() throws IOException {
+            long offset = written;
+            for (int i = 0; i < blocks.size(); i++) {
+                byte[] key = firstKeys.get(i).getBytes(StandardCharsets.UTF_8);
+                out.writeInt(key.length);
+                out.write(key);
+                out.writeLong(blocks.get(i)[0]);
+                out.writeInt((int) blocks.get(i)[1]);
+                out.writeInt((int) blocks.get(i)[2]);
+                written += 4 + key.length + 8 + 4 + 4;
+            }
+            return offset;
+        }
+
+        void flush() throws IOException {
+            out.flush();
+        }
+
+        @Override
+        public void close() throws IOException {
+            deflater.end();
+            out.flush();
+        }
+    }
+
+    // writes the length shared with the previous name, then the rest as UTF-8
+    private static void frontCode(ByteArrayOutputStream block, String previous, String name) {
+        int shared = sharedPrefix(previous, name);
+        byte[] suffix = name.substring(shared).getBytes(StandardCharsets.UTF_8);
+        writeVarint(block, shared);
+        writeVarint(block, suffix.length);
+        block.writeBytes(suffix);
+    }
+
+    private static int sharedPrefix(String previous, String value) {
+        int max = Math.min(previous.length(), value.length());
+        int shared = 0;
+        while (shared < max && previous.charAt(shared) == value.charAt(shared)) {
+            shared++;
+        }
+        // never split a surrogate pair, the rest is written as UTF-8
+        if (shared > 0 && shared < value.length() && Character.isLowSurrogate(value.charAt(shared))) {
+            shared--;
+        }
+        return shared;
+    }
+
+    private static void writeNibbles(ByteArrayOutputStream block, String previous, String value) {
+        int shared = sharedPrefix(previous, value);
+        int length = value.length() - shared;
+        writeVarint(block, shared);
+        writeVarint(block, length);
+        for (int i = 0; i < length; i += 2) {
+            int high = NumberArena.nibble(value.charAt(shared + i));
+            int low = i + 1 < length ? NumberArena.nibble(value.charAt(shared + i + 1)) : 0;
+            block.write(high << 4 | low);
+        }
+    }
+
+    private static void writeVarint(ByteArrayOutputStream block, int value) {
+        while ((value & ~0x7F) != 0) {
+            block.write(value & 0x7F | 0x80);
+            value >>>= 7;
+        }
+        block.write(value);
+    }
+
+    // cursor over one inflated block
+    private static final class BlockReader {
+        private final byte[] data;
+        private int position;
+
+        BlockReader(byte[] data) {
+            this.data = data;
+        }
+
+        boolean hasMore() {
+            return position < data.length;
+        }
+
+        int varint() {
+            int value = 0;
+            for (int shift = 0; ; shift += 7) {
+                int b = data[position++];
+                value |= (b & 0x7F) << shift;
+                if ((b & 0x80) == 0) {
+                    return value;
+                }
+            }
+        }
+
+        String utf8() {
+            int length = varint();
+            String value = new String(data, position, length, StandardCharsets.UTF_8);
+            position += length;
+            return value;
+        }
+
+        String frontCoded(String previous) {
+            int shared = varint();
+            String suffix = utf8();
+            return shared == 0 ? suffix : previous.substring(0, shared) + suffix;
+        }
+
+        String nibbles(String previous) {
+            int shared = varint();
+            int length = varint();
+            char[] chars = new char[shared + length];
+            previous.getChars(0, shared, chars, 0);
+            for (int i = 0; i < length; i++) {
+                int b = data[position + i / 2];
+                chars[shared + i] = NumberArena.symbol((i & 1) == 0 ? (b >> 4) & 0xF : b & 0xF);
+            }
+            position += (length + 1) / 2;
+            return new String(chars);
+        }
+    }
+
+    private BlockReader block(Index index, int block) {
+        byte[] stored = new byte[index.storedSizes[block]];
+        byte[] raw = new byte[index.rawSizes[block]];
+        Inflater inflater = new Inflater();
+        try {
+            readFully(ByteBuffer.wrap(stored), index.offsets[block]);
+            inflater.setInput(stored);
+            int inflated = 0;
+            while (inflated < raw.length && !inflater.finished()) {
+                inflated += inflater.inflate(raw, inflated, raw.length - inflated);
+            }
+            if (inflated != raw.length) {
+                throw new IOException("Truncated block " + block);
+            }
+        } catch (IOException | DataFormatException failed) {
+            throw new UncheckedIOException(new IOException("Could not read the block file: " + failed.getMessage(), failed));
+        } finally {
+            inflater.end();
+        }
+        return new BlockReader(raw);
+    }
+
+    private void readFully(ByteBuffer buffer, long position) throws IOException {
+        while (buffer.hasRemaining()) {
+            if (channel.read(buffer, position + buffer.position()) < 0) {
+                throw new EOFException("Block file ended early");
+            }
+        }
+    }
+
+    long size() {
+        return contactCount;
+    }
+
+    @Override
+    public boolean isEmpty() {
+        return contactCount == 0;
+    }
+
+    @Override
+    public List<String> numbers(String name) {
+        // the block holding name is the last one starting at or before it
+        int index = names.lowerBound(name);
+        int block = index < names.size() && names.firstKeys[index].equals(name) ? index : index - 1;
+        if (block < 0) {
+            return null;
+        }
+
+        BlockReader in = block(names, block);
+        String previousName = "";
+        String previousNumber = "";
+        while (in.hasMore()) {
+            String current = in.frontCoded(previousName);
+            int count = in.varint();
+            List<String> list = new ArrayList<>(count);
+            for (int i = 0; i < count; i++) {
+                previousNumber = in.nibbles(previousNumber);
+                list.add(previousNumber);
+            }
+            int cmp = current.compareTo(name);
+            if (cmp == 0) {
+                return list;
+            } else if (cmp > 0) {
+                return null;
+            }
+            previousName = current;
+        }
+        return null;
+    }
+
+    @Override
+    public Set<String> owners(String number) {
+        String key = ContactStore.normalize(number);
+        // a run of equal keys may start at the end of the block before the first one starting with it
+        int block = Math.max(0, numbers.lowerBound(key) - 1);
+        Set<String> owners = new TreeSet<>();
+        for (; block < numbers.size(); block++) {
+            if (numbers.firstKeys[block].compareTo(key) > 0) {
+                break;
+            }
+            BlockReader in = block(numbers, block);
+            String previousKey = "";
+            while (in.hasMore()) {
+                previousKey = in.nibbles(previousKey);
+                String owner = in.utf8();
+                int cmp = previousKey.compareTo(key);
+                if (cmp == 0) {
+                    owners.add(owner);
+                } else if (cmp > 0) {
+                    return owners;
+                }
+            }
+        }
+        return owners;
+    }
+
+    @Override
+    public Iterable<Map.Entry<String, List<String>>> entries(String from) {
+        int start = from == null ? 0 : Math.max(0, names.lowerBound(from) - 1);
+        return () -> new Iterator<Map.Entry<String, List<String>>>() {
+            private int next = start;
+            private BlockReader in;
+            private String previousName;
+            private String previousNumber;
+            private Map.Entry<String, List<String>> pending;
+
+            @Override
+            public boolean hasNext() {
+                while (pending == null) {
+                    if (in == null || !in.hasMore()) {
+                        if (next >= names.size()) {
+                            return false;
+                        }
+                        in = block(names, next++);
+                        previousName = "";
+                        previousNumber = "";
+                        continue;
+                    }
+
+                    String name = in.frontCoded(previousName);
+                    int count = in.varint();
+                    List<String> list = new ArrayList<>(count);
+                    for (int i = 0; i < count; i++) {
+                        previousNumber = in.nibbles(previousNumber);
+                        list.add(previousNumber);
+                    }
+                    previousName = name;
+                    if (from == null || name.compareTo(from) >= 0) {
+                        pending = new AbstractMap.SimpleImmutableEntry<>(name, list);
+                    }
+                }
+                return true;
+            }
+
+            @Override
+            public Map.Entry<String, List<String>> next() {
+                if (!hasNext()) {
+                    throw new NoSuchElementException();
+                }
+                Map.Entry<String, List<String>> entry = pending;
+                pending = null;
+                return entry;
+            }
+        };
+    }
+
+    @Override
+    public void close() throws IOException {
+        channel.close();
+    }
+}
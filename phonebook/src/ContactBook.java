@@ -0,0 +1,14 @@
+/**
+ * A phone book that can also be changed, served by the in-memory store or by on-disk shards.
+ */
+public interface ContactBook extends ContactSource {
+
+    boolean addNumber(String name, String number);
+
+    /**
+     * Removes one number of a contact, and the contact with it when that was its last number.
+     */
+    boolean removeNumber(String name, String number);
+
+    boolean removeContact(String name);
+}
@@ -0,0 +1,212 @@
+import java.util.*;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Least recently used cache of lookups in front of a phone book served from disk, so popular
+ * contacts are read from the image or a shard once instead of on every show and find. Answers
+ * are kept by name and by normalized number, misses included, within a budget of estimated
+ * bytes. Changes made through the cache drop every answer they could affect.
+ *
+ * Names are matched exactly, as the image and the shards do, so {@code show} is answered from the cache too.
+ */
+public class ContactCache implements ContactBook {
+
+    private static final char NAME = 'N';
+    private static final char NUMBER = '#';
+    // rough retained size of a map node with its key, and of one string in a cached answer
+    private static final long ENTRY_OVERHEAD = 96;
+    private static final long STRING_OVERHEAD = 48;
+    // a list of its own, so it is never mistaken for a contact without numbers
+    private static final List<String> NO_CONTACT = Collections.unmodifiableList(new ArrayList<>());
+
+    private final ContactSource source;
+    private final long budget;
+    private final LinkedHashMap<String, Object> answers = new LinkedHashMap<>(1024, 0.75f, true);
+    private long used;
+    // bumped by every change, so an answer read from disk across one is not cached
+    private long version;
+
+    private final LongAdder hits = new LongAdder();
+    private final LongAdder misses = new LongAdder();
+    private final LongAdder evictions = new LongAdder();
+
+    ContactCache(ContactSource source, long budget) {
+        this.source = source;
+        this.budget = budget;
+    }
+
+    @Override
+    public boolean isEmpty() {
+        return source.isEmpty();
+    }
+
+    @Override
+    public List<String> numbers(String name) {
+        Object cached = lookup(NAME + name);
+        if (cached != null) {
+            return cached == NO_CONTACT ? null : castNumbers(cached);
+        }
+
+        long seen = version();
+        List<String> numbers = source.numbers(name);
+        store(NAME + name, numbers == null ? NO_CONTACT : numbers, seen);
+        return numbers;
+    }
+
+    // one cached lookup per show, where matching and then numbers would count the same name twice
+    @Override
+    public Map<String, List<String>> matches(String name) {
+        List<String> numbers = numbers(name);
+        return numbers == null ? Collections.emptyMap() : Collections.singletonMap(name, numbers);
+    }
+
+    @Override
+    public Set<String> owners(String number) {
+        String key = NUMBER + ContactStore.normalize(number);
+        Object cached = lookup(key);
+        if (cached != null) {
+            return castOwners(cached);
+        }
+
+        long seen = version();
+        Set<String> owners = source.owners(number);
+        store(key, owners, seen);
+        return owners;
+    }
+
+    @SuppressWarnings("unchecked")
+    private static List<String> castNumbers(Object cached) {
+        return (List<String>) cached;
+    }
+
+    @SuppressWarnings("unchecked")
+    private static Set<String> castOwners(Object cached) {
+        return (Set<String>) cached;
+    }
+
+    @Override
+    public Iterable<Map.Entry<String, List<String>>> entries(String from) {
+        return source.entries(from);
+    }
+
+    @Override
+    public Iterable<Map.Entry<String, List<String>>> collated(String from) {
+        return source.collated(from);
+    }
+
+    private synchronized Object lookup(String key) {
+        Object cached = answers.get(key);
+        if (cached != null) {
+            hits.increment();
+        } else {
+            misses.increment();
+        }
+        return cached;
+    }
+
+    private synchronized long version() {
+        return version;
+    }
+
+    private synchronized void store(String key, Object answer, long seen) {
+        if (seen != version) {
+            return;
+        }
+        long size = size(key, answer);
+        if (size > budget) {
+            return;
+        }
+
+        Object replaced = answers.put(key, answer);
+        used += size;
+        if (replaced != null) {
+            used -= size(key, replaced);
+        }
+
+        Iterator<Map.Entry<String, Object>> oldest = answers.entrySet().iterator();
+        while (used > budget && oldest.hasNext()) {
+            Map.Entry<String, Object> entry = oldest.next();
+            used -= size(entry.getKey(), entry.getValue());
+            oldest.remove();
+            evictions.increment();
+        }
+    }
+
+    private static long size(String key, Object answer) {
+        long size = ENTRY_OVERHEAD + 2L * key.length();
+        for (Object value : (Collection<?>) answer) {
+            size += STRING_OVERHEAD + 2L * ((String) value).length();
+        }
+        return size;
+    }
+
+    private synchronized void invalidate(String name, Collection<String> numbers) {
+        version++;
+        drop(NAME + name);
+        for (String number : numbers) {
+            drop(NUMBER + ContactStore.normalize(number));
+        }
+    }
+
+    private void drop(String key) {
+        Object removed = answers.remove(key);
+        if (removed != null) {
+            used -= size(key, removed);
+        }
+    }
+
+    private ContactBook book() {
+        if (!(source instanceof ContactBook)) {
+            throw new UnsupportedOperationException("This phone book is read-only");
+        }
+        return (ContactBook) source;
+    }
+
+    @Override
+    public boolean addNumber(String name, String number) {
+        try {
+            return book().addNumber(name, number);
+        } finally {
+            invalidate(name, Collections.singletonList(number));
+        }
+    }
+
+    @Override
+    public boolean removeNumber(String name, String number) {
+        try {
+            return book().removeNumber(name, number);
+        } finally {
+            invalidate(name, Collections.singletonList(number));
+        }
+    }
+
+    @Override
+    public boolean removeContact(String name) {
+        List<String> owned = source.numbers(name);
+        try {
+            return book().removeContact(name);
+        } finally {
+            invalidate(name, owned == null ? Collections.emptyList() : owned);
+        }
+    }
+
+    long hits() {
+        return hits.sum();
+    }
+
+    long misses() {
+        return misses.sum();
+    }
+
+    long evictions() {
+        return evictions.sum();
+    }
+
+    synchronized int size() {
+        return answers.size();
+    }
+
+    synchronized long bytes() {
+        return used;
+    }
+}
@@ -0,0 +1,245 @@
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinTask;
+import java.util.function.BiConsumer;
+import java.util.function.Consumer;
+
+/**
+ * Streaming parser for contacts.csv lines of the form {@code Name,"number, number"}.
+ * Reads the file through a large buffer and decodes each name and number exactly once.
+ */
+public class ContactCsvReader {
+
+    private static final int BUFFER_SIZE = 1 << 20;
+    private static final int MAX_NUMBER_LENGTH = 25;
+    private static final long MIN_CHUNK_SIZE = 4 << 20;
+    private static final long MAX_CHUNK_SIZE = 64 << 20;
+
+    private final Path path;
+    private long rows;
+    private long rejected;
+
+    ContactCsvReader(Path path) {
+        this.path = path;
+    }
+
+    long rows() {
+        return rows;
+    }
+
+    long rejected() {
+        return rejected;
+    }
+
+    void read(BiConsumer<String, String> contacts) throws IOException {
+        try (FileChannel channel = FileChannel.open(path, StandardOpenOption.READ)) {
+            read(channel, 0, channel.size(), contacts);
+        }
+    }
+
+    /**
+     * Parses newline aligned chunks of the file on several threads, then hands the rows to
+     * {@code contacts} on the calling thread in file order.
+     */
+    void readParallel(BiConsumer<String, String> contacts) throws IOException {
+        readPartials(partial -> {
+            for (Map.Entry<String, List<String>> entry : partial.entrySet()) {
+                for (String number : entry.getValue()) {
+                    contacts.accept(entry.getKey(), number);
+                }
+            }
+        });
+    }
+
+    /**
+     * Parses newline aligned chunks of the file on a fork/join pool, each into a partial map from name
+     * to numbers in file order, and hands the partial maps to {@code partials} on the calling thread in
+     * file order. Only a window of chunks is parsed ahead of the consumer, so memory stays bounded on
+     * files far larger than the heap would hold twice.
+     */
+    void readPartials(Consumer<Map<String, List<String>>> partials) throws IOException {
+        try (FileChannel channel = FileChannel.open(path, StandardOpenOption.READ)) {
+            long size = channel.size();
+            int threads = Runtime.getRuntime().availableProcessors();
+            int chunks = (int) Math.max(1, Math.min(Math.max(threads * 4L, size / MAX_CHUNK_SIZE), size / MIN_CHUNK_SIZE));
+
+            long[] bounds = new long[chunks + 1];
+            bounds[chunks] = size;
+            for (int i = 1; i < chunks; i++) {
+                bounds[i] = nextLineStart(channel, Math.max(bounds[i - 1], size / chunks * i), size);
+            }
+
+            ForkJoinPool pool = new ForkJoinPool(threads);
+            List<ForkJoinTask<Map<String, List<String>>>> parsed = new ArrayList<>();
+            ContactCsvReader[] parsers = new ContactCsvReader[chunks];
+            int window = threads * 2;
+            try {
+                for (int i = 0; i < chunks; i++) {
+                    if (i >= window) {
+                        merge(parsed, parsers, i - window, partials);
+                    }
+                    ContactCsvReader parser = new ContactCsvReader(path);
+                    long start = bounds[i];
+                    long end = bounds[i + 1];
+                    parsers[i] = parser;
+                    parsed.add(pool.submit(() -> {
+                        Map<String, List<String>> partial = new LinkedHashMap<>();
+                        parser.read(channel, start, end, (name, number) ->
+                                partial.computeIfAbsent(name, key -> new ArrayList<>(2)).add(number));
+                        return partial;
+                    }));
+                }
+                for (int i = Math.max(0, chunks - window); i < chunks; i++) {
+                    merge(parsed, parsers, i, partials);
+                }
+            } catch (InterruptedException interrupted) {
+                Thread.currentThread().interrupt();
+                throw new InterruptedIOException("Interrupted while reading " + path);
+            } catch (ExecutionException failed) {
+                if (failed.getCause() instanceof IOException) {
+                    throw (IOException) failed.getCause();
+                }
+                throw new IOException(failed.getCause());
+            } finally {
+                pool.shutdownNow();
+            }
+        }
+    }
+
+    private void merge(List<ForkJoinTask<Map<String, List<String>>>> parsed, ContactCsvReader[] parsers, int chunk,
+                       Consumer<Map<String, List<String>>> partials) throws InterruptedException, ExecutionException {
+        Map<String, List<String>> partial = parsed.get(chunk).get();
+        parsed.set(chunk, null);
+        partials.accept(partial);
+        rows += parsers[chunk].rows;
+        rejected += parsers[chunk].rejected;
+    }
+
+    private static long nextLineStart(FileChannel channel, long position, long size) throws IOException {
+        ByteBuffer buffer = ByteBuffer.allocate(4096);
+        while (position < size) {
+            buffer.clear();
+            int read = channel.read(buffer, position);
+            if (read < 0) {
+                break;
+            }
+            for (int i = 0; i < read; i++) {
+                if (buffer.get(i) == '\n') {
+                    return position + i + 1;
+                }
+            }
+            position += read;
+        }
+        return size;
+    }
+
+    private void read(FileChannel channel, long position, long end, BiConsumer<String, String> contacts) throws IOException {
+        ByteBuffer buffer = ByteBuffer.allocate((int) Math.min(BUFFER_SIZE, Math.max(end - position, 1)));
+        byte[] bytes = buffer.array();
+
+        while (true) {
+            buffer.limit((int) Math.min(buffer.capacity(), buffer.position() + end - position));
+            int read = position < end ? channel.read(buffer, position) : -1;
+            if (read > 0) {
+                position += read;
+            }
+            int limit = buffer.position();
+            int start = 0;
+            for (int i = 0; i < limit; i++) {
+                if (bytes[i] == '\n') {
+                    parseLine(bytes, start, i, contacts);
+                    start = i + 1;
+                }
+            }
+
+            if (read < 0) {
+                if (start < limit) {
+                    parseLine(bytes, start, limit, contacts);
+                }
+                return;
+            }
+
+            if (start == 0 && limit == bytes.length) {
+                // a single line longer than the buffer
+                ByteBuffer larger = ByteBuffer.allocate(bytes.length * 2);
+                larger.put(bytes, 0, limit);
+                buffer = larger;
+                bytes = buffer.array();
+            } else {
+                System.arraycopy(bytes, start, bytes, 0, limit - start);
+                buffer.clear();
+                buffer.position(limit - start);
+            }
+        }
+    }
+
+    void parseLine(byte[] bytes, int start, int end, BiConsumer<String, String> contacts) {
+        if (end > start && bytes[end - 1] == '\r') {
+            end--;
+        }
+        if (start == end) {
+            return;
+        }
+
+        int comma = start;
+        while (comma < end && bytes[comma] != ',' && bytes[comma] != '"') {
+            comma++;
+        }
+        // name, comma, opening quote, at least one number character, closing quote
+        if (comma == end || bytes[comma] != ',' || end - comma < 4
+                || bytes[comma + 1] != '"' || bytes[end - 1] != '"') {
+            rejected++;
+            return;
+        }
+
+        int numbersStart = comma + 2;
+        int numbersEnd = end - 1;
+        int numberLength = 0;
+        for (int i = numbersStart; i < numbersEnd; i++) {
+            byte b = bytes[i];
+            if ((b < '0' || b > '9') && b != '+' && b != ',' && b != ' ') {
+                rejected++;
+                return;
+            }
+            numberLength = b == ',' ? 0 : numberLength + 1;
+            if (numberLength > MAX_NUMBER_LENGTH) {
+                rejected++;
+                return;
+            }
+        }
+
+        String name = new String(bytes, start, comma - start, StandardCharsets.UTF_8);
+        if (name.length() < 2 || name.length() > 50) {
+            rejected++;
+            return;
+        }
+
+        int numberStart = numbersStart;
+        while (numberStart < numbersEnd) {
+            int numberEnd = numberStart;
+            while (numberEnd < numbersEnd && bytes[numberEnd] != ',') {
+                numberEnd++;
+            }
+            if (numberEnd > numberStart) {
+                contacts.accept(name, new String(bytes, numberStart, numberEnd - numberStart, StandardCharsets.ISO_8859_1));
+            }
+
+            numberStart = numberEnd + 1;
+            while (numberStart < numbersEnd && bytes[numberStart] == ' ') {
+                numberStart++;
+            }
+        }
+        rows++;
+    }
+}
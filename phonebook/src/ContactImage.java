@@ -0,0 +1,254 @@
+import java.io.*;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.Charset;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.*;
+
+/**
+ * Read-only binary phone book served straight from a memory mapping.
+ *
+ * Layout (big-endian ints): a 32 byte header, the name table sorted by name (pool offset, byte length,
+ * index of first number), the number table (pool offset, byte length), the reverse table of
+ * (number index, contact index) sorted by normalized number, and finally the string pool.
+ * A single mapping limits an image to 2 GB.
+ */
+public class ContactImage implements ContactSource {
+
+    private static final int MAGIC = 0x50424B31;
+    private static final int VERSION = 1;
+    private static final int HEADER_SIZE = 32;
+    private static final int NAME_ENTRY = 12;
+    private static final int NUMBER_ENTRY = 8;
+    private static final int REVERSE_ENTRY = 8;
+
+    private final MappedByteBuffer image;
+    private final int contactCount;
+    private final int numberCount;
+    private final int nameTable;
+    private final int numberTable;
+    private final int reverseTable;
+    private final int pool;
+
+    private ContactImage(MappedByteBuffer image) throws IOException {
+        this.image = image;
+        if (image.capacity() < HEADER_SIZE || image.getInt(0) != MAGIC || image.getInt(4) != VERSION) {
+            throw new IOException("Not a phone book image");
+        }
+        contactCount = image.getInt(8);
+        numberCount = image.getInt(12);
+        nameTable = image.getInt(16);
+        numberTable = image.getInt(20);
+        reverseTable = image.getInt(24);
+        pool = image.getInt(28);
+    }
+
+    static ContactImage open(Path path) throws IOException {
+        try (FileChannel channel = FileChannel.open(path, StandardOpenOption.READ)) {
+            if (channel.size() > Integer.MAX_VALUE) {
+                throw new IOException("Phone book image is larger than 2 GB");
+            }
+            return new ContactImage(channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size()));
+        }
+    }
+
+    static void write(Path path, ContactSource contacts) throws IOException {
+        List<String> names = new ArrayList<>();
+        List<String> numbers = new ArrayList<>();
+        List<Integer> owners = new ArrayList<>();
+        List<Integer> firstNumbers = new ArrayList<>();
+        for (Map.Entry<String, List<String>> entry : contacts.entries()) {
+            firstNumbers.add(numbers.size());
+            for (String number : entry.getValue()) {
+                numbers.add(number);
+                owners.add(names.size());
+            }
+            names.add(entry.getKey());
+        }
+
+        ByteArrayOutputStream pool = new ByteArrayOutputStream();
+        int[] nameOffsets = new int[names.size()];
+        int[] nameLengths = new int[names.size()];
+        for (int i = 0; i < names.size(); i++) {
+            byte[] bytes = names.get(i).getBytes(StandardCharsets.UTF_8);
+            nameOffsets[i] = pool.size();
+            nameLengths[i] = bytes.length;
+            pool.write(bytes);
+        }
+        int[] numberOffsets = new int[numbers.size()];
+        for (int i = 0; i < numbers.size(); i++) {
+            numberOffsets[i] = pool.size();
+            pool.write(numbers.get(i).getBytes(StandardCharsets.ISO_8859_1));
+        }
+
+        Integer[] reverse = new Integer[numbers.size()];
+        for (int i = 0; i < reverse.length; i++) {
+            reverse[i] = i;
+        }
+        Arrays.sort(reverse, Comparator.comparing(i -> ContactStore.normalize(numbers.get(i))));
+
+        if (HEADER_SIZE + (long) names.size() * NAME_ENTRY
+                + (long) numbers.size() * (NUMBER_ENTRY + REVERSE_ENTRY) + pool.size() > Integer.MAX_VALUE) {
+            throw new IOException("Phone book is too large for a single image");
+        }
+
+        int nameTable = HEADER_SIZE;
+        int numberTable = nameTable + names.size() * NAME_ENTRY;
+        int reverseTable = numberTable + numbers.size() * NUMBER_ENTRY;
+        int poolStart = reverseTable + numbers.size() * REVERSE_ENTRY;
+
+        Path temp = path.resolveSibling(path.getFileName() + ".tmp");
+        try (FileOutputStream file = new FileOutputStream(temp.toFile());
+             DataOutputStream out = new DataOutputStream(new BufferedOutputStream(file, 1 << 16))) {
+            out.writeInt(MAGIC);
+            out.writeInt(VERSION);
+            out.writeInt(names.size());
+            out.writeInt(numbers.size());
+            out.writeInt(nameTable);
+            out.writeInt(numberTable);
+            out.writeInt(reverseTable);
+            out.writeInt(poolStart);
+            for (int i = 0; i < names.size(); i++) {
+                out.writeInt(nameOffsets[i]);
+                out.writeInt(nameLengths[i]);
+                out.writeInt(firstNumbers.get(i));
+            }
+            for (int i = 0; i < numbers.size(); i++) {
+                out.writeInt(numberOffsets[i]);
+                out.writeInt(numbers.get(i).length());
+            }
+            for (Integer number : reverse) {
+                out.writeInt(number);
+                out.writeInt(owners.get(number));
+            }
+            pool.writeTo(out);
+            out.flush();
+            file.getFD().sync();
+        }
+        PhoneBook.replaceFile(temp, path);
+    }
+
+    int size() {
+        return contactCount;
+    }
+
+    @Override
+    public boolean isEmpty() {
+        return contactCount == 0;
+    }
+
+    @Override
+    public List<String> numbers(String name) {
+        int contact = lowerBound(name);
+        return contact < contactCount && name(contact).equals(name) ? numbers(contact) : null;
+    }
+
+    private int lowerBound(String name) {
+        int low = 0;
+        int high = contactCount;
+        while (low < high) {
+            int mid = (low + high) >>> 1;
+            if (name(mid).compareTo(name) < 0) {
+                low = mid + 1;
+            } else {
+                high = mid;
+            }
+        }
+        return low;
+    }
+
+    @Override
+    public Set<String> owners(String number) {
+        byte[] key = ContactStore.normalize(number).getBytes(StandardCharsets.ISO_8859_1);
+        int low = 0;
+        int high = numberCount;
+        while (low < high) {
+            int mid = (low + high) >>> 1;
+            if (compareNumber(image.getInt(reverseTable + mid * REVERSE_ENTRY), key) < 0) {
+                low = mid + 1;
+            } else {
+                high = mid;
+            }
+        }
+
+        Set<String> names = new TreeSet<>();
+        for (int i = low; i < numberCount; i++) {
+            int entry = reverseTable + i * REVERSE_ENTRY;
+            if (compareNumber(image.getInt(entry), key) != 0) {
+                break;
+            }
+            names.add(name(image.getInt(entry + 4)));
+        }
+        return names;
+    }
+
+    @Override
+    public Iterable<Map.Entry<String, List<String>>> entries(String from) {
+        int first = from == null ? 0 : lowerBound(from);
+        return () -> new Iterator<Map.Entry<String, List<String>>>() {
+            private int next = first;
+
+            @Override
+            public boolean hasNext() {
+                return next < contactCount;
+            }
+
+            @Override
+            public Map.Entry<String, List<String>> next() {
+                if (next >= contactCount) {
+                    throw new NoSuchElementException();
+                }
+                int contact = next++;
+                return new AbstractMap.SimpleImmutableEntry<>(name(contact), numbers(contact));
+            }
+        };
+    }
+
+    private String name(int contact) {
+        int entry = nameTable + contact * NAME_ENTRY;
+        return string(image.getInt(entry), image.getInt(entry + 4), StandardCharsets.UTF_8);
+    }
+
+    private List<String> numbers(int contact) {
+        int entry = nameTable + contact * NAME_ENTRY;
+        int first = image.getInt(entry + 8);
+        int last = contact + 1 < contactCount ? image.getInt(entry + NAME_ENTRY + 8) : numberCount;
+
+        List<String> numbers = new ArrayList<>(last - first);
+        for (int i = first; i < last; i++) {
+            int number = numberTable + i * NUMBER_ENTRY;
+            numbers.add(string(image.getInt(number), image.getInt(number + 4), StandardCharsets.ISO_8859_1));
+        }
+        return numbers;
+    }
+
+    private String string(int offset, int length, Charset charset) {
+        byte[] bytes = new byte[length];
+        image.get(pool + offset, bytes);
+        return new String(bytes, charset);
+    }
+
+    // compares the canonical form of the stored number against a canonical key
+    private int compareNumber(int number, byte[] key) {
+        int entry = numberTable + number * NUMBER_ENTRY;
+        int position = pool + image.getInt(entry);
+        int end = position + image.getInt(entry + 4);
+        int k = 0;
+        for (; position < end; position++) {
+            byte b = image.get(position);
+            if (b == ' ' || b == '+' && k > 0) {
+                continue;
+            }
+            if (k == key.length) {
+                return 1;
+            }
+            if (b != key[k]) {
+                return b - key[k];
+            }
+            k++;
+        }
+        return k == key.length ? 0 : -1;
+    }
+}
@@ -0,0 +1,428 @@
+import java.io.BufferedReader;
+import java.io.Closeable;
+import java.io.EOFException;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Append-only log of phone book mutations, replayed on top of the last CSV snapshot. Each record is
+ * one line {@code <sequence>\t<op>\t<name>[\t<number>]}, with sequence numbers counting up from 1.
+ *
+ * The journal is also the change stream for downstream copies, see {@link ChangeStream}: a rotated
+ * journal that a snapshot covers is archived as a segment named after its first sequence number
+ * instead of being deleted, so the full history stays readable.
+ */
+public class ContactJournal {
+
+    static final char ADD_CONTACT = 'C';
+    static final char ADD = 'A';
+    static final char REMOVE = 'R';
+    static final char DELETE = 'D';
+
+    private static final int TAIL = 1 << 12;
+
+    private final Path path;
+    private final Path rotatedPath;
+    private final ByteBuffer pending = ByteBuffer.allocate(1 << 16);
+    private FileChannel channel;
+    private int records;
+    private int unsynced;
+    private int syncEvery = 1;
+    private long sequence;
+    // end of the records in the live journal that a sync has made durable
+    private long durable;
+
+    /**
+     * An open journal file and the end of the durable records in it, for reading the change stream.
+     */
+    static final class Segment implements Closeable {
+        final FileChannel channel;
+        final long end;
+
+        Segment(FileChannel channel, long end) {
+            this.channel = channel;
+            this.end = end;
+        }
+
+        @Override
+        public void close() throws IOException {
+            channel.close();
+        }
+    }
+
+    ContactJournal(String path) throws IOException {
+        this.path = Paths.get(path);
+        this.rotatedPath = Paths.get(path + ".old");
+        open();
+        sequence = lastSequence();
+    }
+
+    private void open() throws IOException {
+        channel = FileChannel.open(path, StandardOpenOption.CREATE,
+                StandardOpenOption.READ, StandardOpenOption.WRITE);
+        durable = cutTornRecord(channel);
+        channel.position(durable);
+    }
+
+    // a record torn by a crash would swallow the next one appended, so the file is cut back to its last newline
+    private static long cutTornRecord(FileChannel file) throws IOException {
+        long end = file.size();
+        ByteBuffer last = ByteBuffer.allocate(1);
+        while (end > 0) {
+            last.clear();
+            file.read(last, end - 1);
+            if (last.get(0) == '\n') {
+                break;
+            }
+            end--;
+        }
+        if (end < file.size()) {
+            file.truncate(end);
+        }
+        return end;
+    }
+
+    // the live journal, else the rotated one, else the newest archived segment holds the last record
+    private long lastSequence() throws IOException {
+        List<Path> files = new ArrayList<>(Arrays.asList(path, rotatedPath));
+        long[] archived = archived();
+        if (archived.length > 0) {
+            files.add(segmentPath(archived[archived.length - 1]));
+        }
+
+        for (Path file : files) {
+            if (!Files.exists(file)) {
+                continue;
+            }
+            try (FileChannel in = FileChannel.open(file, StandardOpenOption.READ)) {
+                long size = in.size();
+                long from = Math.max(0, size - TAIL);
+                ByteBuffer tail = ByteBuffer.allocate((int) (size - from));
+                readFully(in, tail, from);
+                byte[] bytes = tail.array();
+
+                int end = bytes.length;
+                while (end > 0 && bytes[end - 1] != '\n') {
+                    end--;
+                }
+                // a record is far shorter than the tail, so the last one starts inside it
+                int start = Math.max(0, end - 1);
+                while (start > 0 && bytes[start - 1] != '\n') {
+                    start--;
+                }
+                long last = end == 0 ? 0 : sequenceAt(in, from + start);
+                if (last > 0) {
+                    return last;
+                }
+            }
+        }
+        return 0;
+    }
+
+    /**
+     * Appends a record and returns its sequence number.
+     */
+    synchronized long append(char op, String name, String number) throws IOException {
+        StringBuilder record = new StringBuilder();
+        record.append(++sequence).append('\t').append(op).append('\t').append(escape(name));
+        if (number != null) {
+            record.append('\t').append(number);
+        }
+        record.append('\n');
+
+        byte[] bytes = record.toString().getBytes(StandardCharsets.UTF_8);
+        if (bytes.length > pending.remaining()) {
+            writePending();
+        }
+        if (bytes.length > pending.remaining()) {
+            write(ByteBuffer.wrap(bytes));
+        } else {
+            pending.put(bytes);
+        }
+        records++;
+        unsynced++;
+
+        if (syncEvery > 0 && unsynced >= syncEvery) {
+            sync();
+        }
+        return sequence;
+    }
+
+    /**
+     * Syncs after every {@code records} appended records, so a burst of changes shares one disk write.
+     * Zero leaves records buffered until {@link #sync()} or {@link #flush()}.
+     */
+    synchronized void setSyncEvery(int records) throws IOException {
+        this.syncEvery = records;
+        sync();
+    }
+
+    synchronized int syncEvery() {
+        return syncEvery;
+    }
+
+    synchronized void sync() throws IOException {
+        writePending();
+        channel.force(false);
+        durable = channel.position();
+        unsynced = 0;
+    }
+
+    /**
+     * Syncs only when records were appended since the last sync.
+     */
+    synchronized void flush() throws IOException {
+        if (unsynced > 0 || pending.position() > 0) {
+            sync();
+        }
+    }
+
+    private void writePending() throws IOException {
+        pending.flip();
+        write(pending);
+        pending.clear();
+    }
+
+    private void write(ByteBuffer buffer) throws IOException {
+        while (buffer.hasRemaining()) {
+            channel.write(buffer);
+        }
+    }
+
+    synchronized int size() {
+        return records;
+    }
+
+    synchronized long sequence() {
+        return sequence;
+    }
+
+    /**
+     * Moves the live journal aside so a snapshot can be written while new records keep coming in.
+     * A rotated journal left behind by an interrupted compaction is kept and the live one appended to it.
+     */
+    synchronized void rotate() throws IOException {
+        sync();
+        channel.close();
+        if (Files.exists(rotatedPath)) {
+            // the live records only go once they are on disk in the rotated journal
+            try (FileChannel rotated = FileChannel.open(rotatedPath, StandardOpenOption.READ, StandardOpenOption.WRITE)) {
+                long end = cutTornRecord(rotated);
+                ByteBuffer live = ByteBuffer.wrap(Files.readAllBytes(path));
+                while (live.hasRemaining()) {
+                    end += rotated.write(live, end);
+                }
+                rotated.force(false);
+            }
+            Files.delete(path);
+        } else {
+            Files.move(path, rotatedPath);
+        }
+        records = 0;
+        open();
+    }
+
+    /**
+     * Archives the rotated journal once a snapshot covers it, as a change stream segment named after
+     * its first sequence number. Records written before sequence numbers were kept are dropped.
+     */
+    synchronized void discardRotated() throws IOException {
+        if (!Files.exists(rotatedPath)) {
+            return;
+        }
+
+        // records without a sequence can only come before the first one with it
+        long first = 0;
+        try (BufferedReader in = Files.newBufferedReader(rotatedPath, StandardCharsets.UTF_8)) {
+            String line;
+            while (first == 0 && (line = in.readLine()) != null) {
+                int tab = line.indexOf('\t');
+                if (tab > 0 && isSequence(line.substring(0, tab))) {
+                    first = Long.parseLong(line.substring(0, tab));
+                }
+            }
+        }
+        if (first > 0) {
+            Files.move(rotatedPath, segmentPath(first));
+        } else {
+            Files.delete(rotatedPath);
+        }
+    }
+
+    private Path segmentPath(long first) {
+        return path.resolveSibling(path.getFileName() + "." + first);
+    }
+
+    // first sequence numbers of the archived segments, in order
+    private long[] archived() throws IOException {
+        String prefix = path.getFileName() + ".";
+        List<Long> firsts = new ArrayList<>();
+        try (DirectoryStream<Path> files = Files.newDirectoryStream(path.toAbsolutePath().getParent(), prefix + "*")) {
+            for (Path file : files) {
+                String suffix = file.getFileName().toString().substring(prefix.length());
+                if (isSequence(suffix)) {
+                    firsts.add(Long.parseLong(suffix));
+                }
+            }
+        }
+        return firsts.stream().mapToLong(Long::longValue).sorted().toArray();
+    }
+
+    /**
+     * Opens the files that can hold records after sequence {@code after}, oldest first, each with the
+     * end of its durable records. They are opened under the lock, so a rotation or archiving cannot
+     * move one away in between, and an open file stays readable after it was moved.
+     */
+    synchronized List<Segment> segments(long after) throws IOException {
+        List<Segment> segments = new ArrayList<>();
+        try {
+            long[] archived = archived();
+            int from = 0;
+            while (from + 1 < archived.length && archived[from + 1] <= after + 1) {
+                from++;
+            }
+            for (int i = from; i < archived.length; i++) {
+                segments.add(open(segmentPath(archived[i])));
+            }
+            if (Files.exists(rotatedPath)) {
+                segments.add(open(rotatedPath));
+            }
+            segments.add(new Segment(FileChannel.open(path, StandardOpenOption.READ), durable));
+        } catch (IOException ioex) {
+            for (Segment segment : segments) {
+                segment.close();
+            }
+            throw ioex;
+        }
+        return segments;
+    }
+
+    // archived and rotated journals were synced before they got their name, so all of them is durable
+    private static Segment open(Path file) throws IOException {
+        FileChannel in = FileChannel.open(file, StandardOpenOption.READ);
+        return new Segment(in, in.size());
+    }
+
+    synchronized void close() throws IOException {
+        sync();
+        channel.close();
+    }
+
+    int replay(ContactBook contacts) throws IOException {
+        int replayed = replay(rotatedPath, contacts);
+        records = replay(path, contacts);
+        return replayed + records;
+    }
+
+    private static int replay(Path file, ContactBook contacts) throws IOException {
+        if (!Files.exists(file)) {
+            return 0;
+        }
+
+        String content = new String(Files.readAllBytes(file), StandardCharsets.UTF_8);
+        int replayed = 0;
+        int start = 0;
+        int end;
+        // a record without its trailing newline was torn by a crash and is ignored
+        while ((end = content.indexOf('\n', start)) >= 0) {
+            String[] fields = content.substring(start, end).split("\t", -1);
+            start = end + 1;
+            // records written before sequence numbers were kept start with the op
+            int op = isSequence(fields[0]) ? 1 : 0;
+            if (fields.length < op + 2 || fields[op].length() != 1
+                    || (fields[op].charAt(0) != DELETE && fields.length < op + 3)) {
+                continue;
+            }
+
+            String name = unescape(fields[op + 1]);
+            try {
+                switch (fields[op].charAt(0)) {
+                    case ADD_CONTACT:
+                    case ADD:
+                        contacts.addNumber(name, fields[op + 2]);
+                        break;
+                    case REMOVE:
+                        contacts.removeNumber(name, fields[op + 2]);
+                        break;
+                    case DELETE:
+                        contacts.removeContact(name);
+                        break;
+                    default:
+                        continue;
+                }
+            } catch (IllegalArgumentException malformed) {
+                // a damaged record is dropped like a torn one, the rest of the journal still applies
+                continue;
+            }
+            replayed++;
+        }
+        return replayed;
+    }
+
+    static boolean isSequence(String field) {
+        if (field.isEmpty() || field.length() > 18) {
+            return false;
+        }
+        for (int i = 0; i < field.length(); i++) {
+            if (field.charAt(i) < '0' || field.charAt(i) > '9') {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Sequence number of the record starting at {@code start}, zero when it has none.
+     */
+    static long sequenceAt(FileChannel file, long start) throws IOException {
+        ByteBuffer digits = ByteBuffer.allocate(20);
+        digits.limit((int) Math.min(20, file.size() - start));
+        readFully(file, digits, start);
+        long value = 0;
+        int i = 0;
+        for (; i < digits.limit() && digits.get(i) >= '0' && digits.get(i) <= '9'; i++) {
+            value = value * 10 + digits.get(i) - '0';
+        }
+        return i < digits.limit() && digits.get(i) == '\t' ? value : 0;
+    }
+
+    static void readFully(FileChannel file, ByteBuffer buffer, long position) throws IOException {
+        while (buffer.hasRemaining()) {
+            if (file.read(buffer, position + buffer.position()) < 0) {
+                throw new EOFException("Journal ended early");
+            }
+        }
+    }
+
+    static String escape(String value) {
+        return value.replace("\\", "\\\\").replace("\t", "\\t");
+    }
+
+    private static String unescape(String value) {
+        if (value.indexOf('\\') < 0) {
+            return value;
+        }
+
+        StringBuilder result = new StringBuilder(value.length());
+        for (int i = 0; i < value.length(); i++) {
+            char c = value.charAt(i);
+            if (c == '\\' && i + 1 < value.length()) {
+                char next = value.charAt(++i);
+                result.append(next == 't' ? '\t' : next);
+            } else {
+                result.append(c);
+            }
+        }
+        return result.toString();
+    }
+}
@@ -0,0 +1,150 @@
+import java.util.*;
+
+/**
+ * Immutable point-in-time copy of a {@link ContactStore}: its name map, its collation key map and a
+ * view of the arena the number references point into. The maps are {@link Treap}s that writers
+ * replace rather than change, so taking a snapshot copies nothing and numbers are decoded while the
+ * snapshot is walked, without any lock.
+ *
+ * The store publishes a new snapshot with every write, so a listing or export runs against a single
+ * version however long it takes and never holds up writers.
+ */
+public class ContactSnapshot {
+
+    final long version;
+    private final Treap<String, int[]> contacts;
+    // collation key to the name, or the names in natural order, that share it
+    private final Treap<byte[], Object> collated;
+    private final NumberArena numbers;
+
+    ContactSnapshot(long version, Treap<String, int[]> contacts, Treap<byte[], Object> collated, NumberArena numbers) {
+        this.version = version;
+        this.contacts = contacts;
+        this.collated = collated;
+        this.numbers = numbers;
+    }
+
+    boolean isEmpty() {
+        return contacts.isEmpty();
+    }
+
+    boolean contains(String name) {
+        return contacts.get(name) != null;
+    }
+
+    /**
+     * Names sharing the collation key {@code key}, in natural order, or null when there are none.
+     */
+    String[] named(byte[] key) {
+        Object group = collated.get(key);
+        return group == null ? null : names(group);
+    }
+
+    static String[] names(Object group) {
+        return group instanceof String ? new String[]{(String) group} : (String[]) group;
+    }
+
+    private List<String> decode(int[] owned) {
+        String[] decoded = new String[owned.length];
+        for (int i = 0; i < owned.length; i++) {
+            decoded[i] = numbers.get(owned[i]);
+        }
+        return Collections.unmodifiableList(Arrays.asList(decoded));
+    }
+
+    /**
+     * Numbers of {@code name} in this version, or null when it had no such contact.
+     */
+    List<String> numbers(String name) {
+        int[] owned = contacts.get(name);
+        return owned == null ? null : decode(owned);
+    }
+
+    /**
+     * Contacts in name order from the first name at or after {@code from}.
+     */
+    Iterable<Map.Entry<String, List<String>>> entries(String from) {
+        return () -> new Iterator<Map.Entry<String, List<String>>>() {
+            private final Iterator<Map.Entry<String, int[]>> next = contacts.from(from);
+
+            @Override
+            public boolean hasNext() {
+                return next.hasNext();
+            }
+
+            @Override
+            public Map.Entry<String, List<String>> next() {
+                Map.Entry<String, int[]> entry = next.next();
+                return new Entry(entry.getKey(), entry.getValue());
+            }
+        };
+    }
+
+    /**
+     * Contacts in listing order, by collation key and then name, from the first one sorting at or
+     * after {@code from}.
+     */
+    Iterable<Map.Entry<String, List<String>>> collated(String from) {
+        byte[] key = from == null ? null : ContactStore.collationKey(from);
+        return () -> new Iterator<Map.Entry<String, List<String>>>() {
+            private final Iterator<Map.Entry<byte[], Object>> groups = collated.from(key);
+            private String[] names = new String[0];
+            private int next;
+
+            {
+                if (groups.hasNext()) {
+                    Map.Entry<byte[], Object> first = groups.next();
+                    names = names(first.getValue());
+                    // within the key of from, names before it are skipped too
+                    while (Arrays.equals(first.getKey(), key) && next < names.length && names[next].compareTo(from) < 0) {
+                        next++;
+                    }
+                }
+            }
+
+            @Override
+            public boolean hasNext() {
+                while (next == names.length && groups.hasNext()) {
+                    names = names(groups.next().getValue());
+                    next = 0;
+                }
+                return next < names.length;
+            }
+
+            @Override
+            public Map.Entry<String, List<String>> next() {
+                if (!hasNext()) {
+                    throw new NoSuchElementException();
+                }
+                return new Entry(names[next++], null);
+            }
+        };
+    }
+
+    // numbers are only decoded when asked for, so skipping over entries stays cheap
+    private final class Entry implements Map.Entry<String, List<String>> {
+
+        private final String name;
+        private final int[] owned;
+
+        Entry(String name, int[] owned) {
+            this.name = name;
+            this.owned = owned;
+        }
+
+        @Override
+        public String getKey() {
+            return name;
+        }
+
+        @Override
+        public List<String> getValue() {
+            return owned != null ? decode(owned) : numbers(name);
+        }
+
+        @Override
+        public List<String> setValue(List<String> value) {
+            throw new UnsupportedOperationException();
+        }
+    }
+}
@@ -0,0 +1,54 @@
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Read side of a phone book, served by the in-memory store or by an on-disk image.
+ */
+public interface ContactSource {
+
+    boolean isEmpty();
+
+    List<String> numbers(String name);
+
+    Set<String> owners(String number);
+
+    /**
+     * Contacts in name order, starting at the first name not less than {@code from}, or at the first contact when null.
+     */
+    Iterable<Map.Entry<String, List<String>>> entries(String from);
+
+    default Iterable<Map.Entry<String, List<String>>> entries() {
+        return entries(null);
+    }
+
+    /**
+     * Contacts in the order they are listed to people, from the first name sorting at or after {@code from}.
+     */
+    default Iterable<Map.Entry<String, List<String>>> collated(String from) {
+        return entries(from);
+    }
+
+    /**
+     * Names of the contacts that {@code name} refers to, the exact name when it exists.
+     */
+    default List<String> matching(String name) {
+        return numbers(name) == null ? Collections.emptyList() : Collections.singletonList(name);
+    }
+
+    /**
+     * The contacts {@code name} refers to with their numbers, as {@code show} lists them.
+     */
+    default Map<String, List<String>> matches(String name) {
+        Map<String, List<String>> found = new LinkedHashMap<>();
+        for (String match : matching(name)) {
+            List<String> numbers = numbers(match);
+            if (numbers != null) {
+                found.put(match, numbers);
+            }
+        }
+        return found;
+    }
+}
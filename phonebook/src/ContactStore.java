@@ -0,0 +1,467 @@
+import java.text.Collator;
+import java.util.*;
+import java.util.concurrent.locks.StampedLock;
+import java.util.function.Consumer;
+import java.util.function.Supplier;
+import java.util.stream.IntStream;
+
+/**
+ * Contacts sorted by name, plus a reverse index from normalized number to the names that own it
+ * and digit tries over those numbers for prefix and suffix searches.
+ *
+ * Numbers are kept packed in a {@link NumberArena}; a contact only holds the offsets of its numbers,
+ * and the owners of a number live in the prefix trie leaf as a single name or an array of names.
+ *
+ * Next to the natural order the contacts are indexed by collation key, so listings and name lookups
+ * can ignore case and accents without running the collator over stored names.
+ *
+ * A {@link BloomFilter} over names, normalized numbers and collation keys turns most misses away before any index is read.
+ *
+ * Safe for concurrent use: mutations are serialized by a write lock and each one publishes an
+ * immutable {@link ContactSnapshot}, which name lookups and listings read without any lock. Number
+ * lookups run as optimistic reads that only fall back to the read lock when a writer got in the way.
+ */
+public class ContactStore implements ContactBook {
+
+    private static final int[] NO_NUMBERS = new int[0];
+    // collators synchronize every call, so each loading thread gets its own
+    private static final ThreadLocal<Collator> COLLATOR = ThreadLocal.withInitial(ContactStore::collator);
+
+    // replaced by writers under the write lock, never changed in place; readers go through the snapshot
+    private Treap<String, int[]> contacts = new Treap<>(Comparator.naturalOrder());
+    // collation key to the name, or the names in natural order, that share it
+    private Treap<byte[], Object> collated = new Treap<>(Arrays::compareUnsigned);
+    private NumberArena numbers = new NumberArena();
+    private final StampedLock lock = new StampedLock();
+    // bumped by every write, under the write lock
+    private long version;
+    private volatile ContactSnapshot snapshot = new ContactSnapshot(0, contacts, collated, numbers.view());
+    private volatile int size;
+    private final DigitTrie prefixes = new DigitTrie();
+    private final DigitTrie suffixes = new DigitTrie();
+    private final NameGramIndex grams = new NameGramIndex();
+    private volatile BloomFilter known = new BloomFilter(1024);
+
+    private static Collator collator() {
+        Collator collator = Collator.getInstance();
+        collator.setStrength(Collator.PRIMARY);
+        collator.setDecomposition(Collator.CANONICAL_DECOMPOSITION);
+        return collator;
+    }
+
+    static byte[] collationKey(String name) {
+        return COLLATOR.get().getCollationKey(name).toByteArray();
+    }
+
+    /**
+     * Canonical form of a number, used for every comparison and index: its digits, preceded by '+'
+     * when the number starts with one, so "+44 20 1234" and "+44201234" are the same number.
+     */
+    static String normalize(String number) {
+        int length = number.length();
+        char[] canonical = new char[length];
+        int size = 0;
+        for (int i = 0; i < length; i++) {
+            char c = number.charAt(i);
+            if (c >= '0' && c <= '9' || c == '+' && size == 0) {
+                canonical[size++] = c;
+            }
+        }
+        return size == length ? number : new String(canonical, 0, size);
+    }
+
+    @Override
+    public boolean isEmpty() {
+        return snapshot.isEmpty();
+    }
+
+    int size() {
+        return size;
+    }
+
+    boolean contains(String name) {
+        return known.mightContain(BloomFilter.NAME, name) && snapshot.contains(name);
+    }
+
+    @Override
+    public List<String> numbers(String name) {
+        if (!known.mightContain(BloomFilter.NAME, name)) {
+            return null;
+        }
+        return snapshot.numbers(name);
+    }
+
+    /**
+     * Contacts in name order as of this call; later writes do not show up in the returned iterable.
+     */
+    @Override
+    public Iterable<Map.Entry<String, List<String>>> entries(String from) {
+        return snapshot.entries(from);
+    }
+
+    @Override
+    public Iterable<Map.Entry<String, List<String>>> collated(String from) {
+        return snapshot.collated(from);
+    }
+
+    /**
+     * The version current as of this call, published by the last write.
+     */
+    ContactSnapshot snapshot() {
+        return snapshot;
+    }
+
+    // called under the write lock once a change is complete, readers see it from here on
+    private boolean publish(boolean changed) {
+        if (changed) {
+            snapshot = new ContactSnapshot(++version, contacts, collated, numbers.view());
+        }
+        return changed;
+    }
+
+    @Override
+    public List<String> matching(String name) {
+        ContactSnapshot current = snapshot;
+        if (known.mightContain(BloomFilter.NAME, name) && current.contains(name)) {
+            return Collections.singletonList(name);
+        }
+        byte[] key = collationKey(name);
+        if (!known.mightContain(BloomFilter.COLLATION, key)) {
+            return Collections.emptyList();
+        }
+        String[] names = current.named(key);
+        return names == null ? Collections.emptyList() : Arrays.asList(names);
+    }
+
+    @Override
+    public Set<String> owners(String number) {
+        String key = normalize(number);
+        if (!known.mightContain(BloomFilter.NUMBER, key)) {
+            return Collections.emptySet();
+        }
+        Object owners = read(() -> prefixes.get(key));
+        if (owners == null) {
+            return Collections.emptySet();
+        } else if (owners instanceof String) {
+            return Collections.singleton((String) owners);
+        }
+        return Collections.unmodifiableSet(new TreeSet<>(Arrays.asList((String[]) owners)));
+    }
+
+    private <T> T read(Supplier<T> reader) {
+        long stamp = lock.tryOptimisticRead();
+        if (stamp != 0) {
+            try {
+                T result = reader.get();
+                if (lock.validate(stamp)) {
+                    return result;
+                }
+            } catch (RuntimeException torn) {
+                // a writer changed the arrays under us, retried below under the read lock
+            }
+        }
+
+        stamp = lock.readLock();
+        try {
+            return reader.get();
+        } finally {
+            lock.unlockRead(stamp);
+        }
+    }
+
+    @Override
+    public boolean addNumber(String name, String number) {
+        long stamp = lock.writeLock();
+        try {
+            return publish(addNumberLocked(name, number, null));
+        } finally {
+            lock.unlockWrite(stamp);
+        }
+    }
+
+    /**
+     * Adds a partial map of names to numbers in one go. The collation keys of new names are the costly
+     * part of adding a contact, so they are computed in parallel before the write lock is taken.
+     */
+    void addAll(Map<String, List<String>> partial) {
+        ContactSnapshot current = snapshot;
+        String[] fresh = partial.keySet().stream().filter(name -> !current.contains(name)).toArray(String[]::new);
+        byte[][] keys = new byte[fresh.length][];
+        IntStream.range(0, fresh.length).parallel().forEach(i -> keys[i] = collationKey(fresh[i]));
+        Map<String, byte[]> collationKeys = new HashMap<>(fresh.length * 2);
+        for (int i = 0; i < fresh.length; i++) {
+            collationKeys.put(fresh[i], keys[i]);
+        }
+
+        long stamp = lock.writeLock();
+        try {
+            boolean changed = false;
+            for (Map.Entry<String, List<String>> entry : partial.entrySet()) {
+                byte[] collationKey = collationKeys.get(entry.getKey());
+                for (String number : entry.getValue()) {
+                    changed |= addNumberLocked(entry.getKey(), number, collationKey);
+                }
+            }
+            publish(changed);
+        } finally {
+            lock.unlockWrite(stamp);
+        }
+    }
+
+    private boolean addNumberLocked(String name, String number, byte[] collationKey) {
+        String key = normalize(number);
+        Map.Entry<String, int[]> entry = contacts.entry(name);
+        int[] refs = NO_NUMBERS;
+        if (entry != null) {
+            // share the name instance already held by the map
+            name = entry.getKey();
+            refs = entry.getValue();
+            for (int ref : refs) {
+                if (numbers.normalizedEquals(ref, key)) {
+                    return false;
+                }
+            }
+        }
+
+        int[] updated = Arrays.copyOf(refs, refs.length + 1);
+        updated[refs.length] = numbers.add(number);
+        contacts = contacts.put(name, updated);
+        if (entry == null) {
+            size++;
+            grams.add(name);
+            collate(name, collationKey != null ? collationKey : collationKey(name));
+            remember(BloomFilter.NAME, name);
+        }
+
+        Object owners = prefixes.get(key);
+        if (owners == null) {
+            prefixes.put(key, name);
+            suffixes.add(reverse(key));
+            remember(BloomFilter.NUMBER, key);
+        } else if (owners instanceof String) {
+            if (!owners.equals(name)) {
+                prefixes.put(key, new String[]{(String) owners, name});
+            }
+        } else if (!Arrays.asList((String[]) owners).contains(name)) {
+            String[] names = Arrays.copyOf((String[]) owners, ((String[]) owners).length + 1);
+            names[names.length - 1] = name;
+            prefixes.put(key, names);
+        }
+        return true;
+    }
+
+    // readers go through the filter without the lock, so an outgrown one is replaced only once rebuilt
+    private void remember(char kind, String key) {
+        known.add(kind, key);
+        if (known.isFull()) {
+            rebuildFilter();
+        }
+    }
+
+    private void remember(byte[] collationKey) {
+        known.add(BloomFilter.COLLATION, collationKey);
+        if (known.isFull()) {
+            rebuildFilter();
+        }
+    }
+
+    private void rebuildFilter() {
+        BloomFilter rebuilt = new BloomFilter(2 * (size + collated.size() + prefixes.size()));
+        for (Iterator<Map.Entry<String, int[]>> entries = contacts.from(null); entries.hasNext(); ) {
+            Map.Entry<String, int[]> entry = entries.next();
+            rebuilt.add(BloomFilter.NAME, entry.getKey());
+            for (int ref : entry.getValue()) {
+                rebuilt.add(BloomFilter.NUMBER, normalize(numbers.get(ref)));
+            }
+        }
+        for (Iterator<Map.Entry<byte[], Object>> groups = collated.from(null); groups.hasNext(); ) {
+            rebuilt.add(BloomFilter.COLLATION, groups.next().getKey());
+        }
+        known = rebuilt;
+    }
+
+    @Override
+    public boolean removeNumber(String name, String number) {
+        long stamp = lock.writeLock();
+        try {
+            return publish(removeNumberLocked(name, number));
+        } finally {
+            lock.unlockWrite(stamp);
+        }
+    }
+
+    private boolean removeNumberLocked(String name, String number) {
+        int[] refs = contacts.get(name);
+        if (refs == null) {
+            return false;
+        }
+
+        String key = normalize(number);
+        for (int i = 0; i < refs.length; i++) {
+            if (numbers.normalizedEquals(refs[i], key)) {
+                if (refs.length == 1) {
+                    // contacts.csv has no row for a contact without numbers, so it goes with its last one
+                    return removeContactLocked(name);
+                }
+                int[] remaining = new int[refs.length - 1];
+                System.arraycopy(refs, 0, remaining, 0, i);
+                System.arraycopy(refs, i + 1, remaining, i, remaining.length - i);
+                contacts = contacts.put(name, remaining);
+                numbers.release(refs[i]);
+                unindex(name, key, remaining);
+                compactNumbers();
+                return true;
+            }
+        }
+        return false;
+    }
+
+    @Override
+    public boolean removeContact(String name) {
+        long stamp = lock.writeLock();
+        try {
+            return publish(removeContactLocked(name));
+        } finally {
+            lock.unlockWrite(stamp);
+        }
+    }
+
+    private boolean removeContactLocked(String name) {
+        int[] refs = contacts.get(name);
+        if (refs == null) {
+            return false;
+        }
+        contacts = contacts.remove(name);
+        size--;
+        grams.remove(name);
+        uncollate(name);
+
+        for (int ref : refs) {
+            unindex(name, normalize(numbers.get(ref)), NO_NUMBERS);
+            numbers.release(ref);
+        }
+        compactNumbers();
+        return true;
+    }
+
+    private void collate(String name, byte[] key) {
+        Object group = collated.get(key);
+        if (group == null) {
+            collated = collated.put(key, name);
+            remember(key);
+            return;
+        }
+
+        String[] names = ContactSnapshot.names(group);
+        int at = -Arrays.binarySearch(names, name) - 1;
+        String[] grown = new String[names.length + 1];
+        System.arraycopy(names, 0, grown, 0, at);
+        grown[at] = name;
+        System.arraycopy(names, at, grown, at + 1, names.length - at);
+        collated = collated.put(key, grown);
+    }
+
+    private void uncollate(String name) {
+        byte[] key = collationKey(name);
+        Object group = collated.get(key);
+        if (group instanceof String) {
+            collated = collated.remove(key);
+        } else if (group != null) {
+            List<String> names = new ArrayList<>(Arrays.asList((String[]) group));
+            names.remove(name);
+            collated = collated.put(key, names.size() == 1 ? names.get(0) : names.toArray(new String[0]));
+        }
+    }
+
+    private void unindex(String name, String key, int[] remaining) {
+        for (int ref : remaining) {
+            if (numbers.normalizedEquals(ref, key)) {
+                return;
+            }
+        }
+
+        Object owners = prefixes.get(key);
+        if (owners == null) {
+            return;
+        } else if (owners instanceof String) {
+            if (owners.equals(name)) {
+                prefixes.remove(key);
+                suffixes.remove(reverse(key));
+            }
+            return;
+        }
+
+        List<String> names = new ArrayList<>(Arrays.asList((String[]) owners));
+        names.remove(name);
+        prefixes.put(key, names.size() == 1 ? names.get(0) : names.toArray(new String[0]));
+    }
+
+    private void compactNumbers() {
+        if (numbers.garbage() < 4096 || numbers.garbage() < numbers.size() / 2) {
+            return;
+        }
+
+        NumberArena compacted = new NumberArena();
+        contacts = contacts.replaceValues(owned -> {
+            int[] refs = owned.clone();
+            for (int i = 0; i < refs.length; i++) {
+                refs[i] = numbers.copyTo(compacted, refs[i]);
+            }
+            return refs;
+        });
+        numbers = compacted;
+    }
+
+    /**
+     * Returns up to {@code limit} names resembling {@code query}, closest first, to tolerate typos.
+     */
+    List<String> fuzzy(String query, int limit) {
+        return locked(() -> grams.search(query, limit));
+    }
+
+    int countStartingWith(String digits) {
+        String key = normalize(digits);
+        return locked(() -> prefixes.count(key));
+    }
+
+    int countEndingWith(String digits) {
+        String key = reverse(normalize(digits));
+        return locked(() -> suffixes.count(key));
+    }
+
+    int searchStartingWith(String digits, int limit, Consumer<String> numbers) {
+        String key = normalize(digits);
+        List<String> found = locked(() -> {
+            List<String> keys = new ArrayList<>();
+            prefixes.search(key, limit, keys::add);
+            return keys;
+        });
+        found.forEach(numbers);
+        return found.size();
+    }
+
+    int searchEndingWith(String digits, int limit, Consumer<String> numbers) {
+        String key = reverse(normalize(digits));
+        List<String> found = locked(() -> {
+            List<String> keys = new ArrayList<>();
+            suffixes.search(key, limit, keys::add);
+            return keys;
+        });
+        found.forEach(match -> numbers.accept(reverse(match)));
+        return found.size();
+    }
+
+    // for reads that walk an unbounded part of the tries and must not see a half applied write
+    private <T> T locked(Supplier<T> reader) {
+        long stamp = lock.readLock();
+        try {
+            return reader.get();
+        } finally {
+            lock.unlockRead(stamp);
+        }
+    }
+
+    private static String reverse(String key) {
+        return new StringBuilder(key).reverse().toString();
+    }
+}
@@ -0,0 +1,279 @@
+import java.util.Arrays;
+import java.util.function.Consumer;
+
+/**
+ * Array backed trie over normalized numbers ('+' and digits). Every node keeps the number of keys
+ * below it, so prefix counts are O(prefix length) and enumeration never visits empty branches.
+ *
+ * Branches are expanded lazily: a key lives in a leaf hanging off the first node where it no longer
+ * shares a path with another key, and the leaf keeps the whole key packed in a {@link NumberArena}.
+ * Child slots hold a node index when positive and {@code -(leaf + 1)} when negative.
+ */
+public class DigitTrie {
+
+    private static final int RADIX = 11;
+    private static final Object PRESENT = Boolean.TRUE;
+
+    private int[] children = new int[RADIX * 64];
+    private int[] sizes = new int[64];
+    private int[] ends = new int[64];
+    private int nodeCount = 1;
+    private int[] freeNodes = new int[16];
+    private int freeNodeCount;
+
+    private NumberArena keys = new NumberArena();
+    private int[] leafKeys = new int[64];
+    private Object[] leafValues = new Object[64];
+    private int leafCount;
+    private int[] freeLeaves = new int[16];
+    private int freeLeafCount;
+
+    private static int index(char c) {
+        if (c >= '0' && c <= '9') {
+            return c - '0';
+        } else if (c == '+') {
+            return 10;
+        }
+        throw new IllegalArgumentException("Not a phone number character: " + c);
+    }
+
+    int size() {
+        return sizes[0];
+    }
+
+    boolean contains(String key) {
+        return leaf(key) >= 0;
+    }
+
+    Object get(String key) {
+        int leaf = leaf(key);
+        return leaf < 0 ? null : leafValues[leaf];
+    }
+
+    boolean add(String key) {
+        return put(key, PRESENT) == null;
+    }
+
+    Object put(String key, Object value) {
+        int existing = leaf(key);
+        if (existing >= 0) {
+            Object previous = leafValues[existing];
+            leafValues[existing] = value;
+            return previous;
+        }
+
+        int leaf = allocateLeaf(key, value);
+        int node = 0;
+        sizes[0]++;
+        for (int depth = 0; ; depth++) {
+            if (depth == key.length()) {
+                ends[node] = leaf + 1;
+                return null;
+            }
+
+            int slot = node * RADIX + index(key.charAt(depth));
+            int child = children[slot];
+            if (child == 0) {
+                children[slot] = -(leaf + 1);
+                return null;
+            }
+
+            if (child < 0) {
+                // another key sits in this slot, push it one level down and keep going
+                int other = -child - 1;
+                int split = allocateNode();
+                children[slot] = split;
+                sizes[split] = 1;
+                int otherKey = leafKeys[other];
+                if (keys.length(otherKey) == depth + 1) {
+                    ends[split] = other + 1;
+                } else {
+                    children[split * RADIX + index(keys.charAt(otherKey, depth + 1))] = child;
+                }
+                child = split;
+            }
+            node = child;
+            sizes[node]++;
+        }
+    }
+
+    boolean remove(String key) {
+        int leaf = leaf(key);
+        if (leaf < 0) {
+            return false;
+        }
+
+        int node = 0;
+        sizes[0]--;
+        for (int depth = 0; depth < key.length(); depth++) {
+            int slot = node * RADIX + index(key.charAt(depth));
+            int child = children[slot];
+            if (child < 0) {
+                children[slot] = 0;
+                break;
+            }
+            if (--sizes[child] == 0) {
+                // nothing else lives below this node, so the rest of the path can be recycled
+                children[slot] = 0;
+                releasePath(child, key, depth + 1);
+                break;
+            }
+            node = child;
+            if (depth + 1 == key.length()) {
+                ends[node] = 0;
+            }
+        }
+        if (key.isEmpty()) {
+            ends[0] = 0;
+        }
+        releaseLeaf(leaf);
+        return true;
+    }
+
+    int count(String prefix) {
+        int node = 0;
+        for (int depth = 0; depth < prefix.length(); depth++) {
+            int child = children[node * RADIX + index(prefix.charAt(depth))];
+            if (child == 0) {
+                return 0;
+            }
+            if (child < 0) {
+                return keys.startsWith(leafKeys[-child - 1], prefix) ? 1 : 0;
+            }
+            node = child;
+        }
+        return sizes[node];
+    }
+
+    /**
+     * Streams up to {@code limit} keys starting with {@code prefix} in ascending order.
+     */
+    int search(String prefix, int limit, Consumer<String> results) {
+        if (limit <= 0) {
+            return 0;
+        }
+
+        int node = 0;
+        for (int depth = 0; depth < prefix.length(); depth++) {
+            int child = children[node * RADIX + index(prefix.charAt(depth))];
+            if (child == 0) {
+                return 0;
+            }
+            if (child < 0) {
+                int key = leafKeys[-child - 1];
+                if (!keys.startsWith(key, prefix)) {
+                    return 0;
+                }
+                results.accept(keys.get(key));
+                return 1;
+            }
+            node = child;
+        }
+        return collect(node, limit, results);
+    }
+
+    private int collect(int node, int limit, Consumer<String> results) {
+        int found = 0;
+        if (ends[node] != 0) {
+            results.accept(keys.get(leafKeys[ends[node] - 1]));
+            found++;
+        }
+
+        for (int i = 0; i < RADIX && found < limit; i++) {
+            int child = children[node * RADIX + i];
+            if (child < 0) {
+                results.accept(keys.get(leafKeys[-child - 1]));
+                found++;
+            } else if (child > 0) {
+                found += collect(child, limit - found, results);
+            }
+        }
+        return found;
+    }
+
+    private int leaf(String key) {
+        int node = 0;
+        for (int depth = 0; depth < key.length(); depth++) {
+            int child = children[node * RADIX + index(key.charAt(depth))];
+            if (child == 0) {
+                return -1;
+            }
+            if (child < 0) {
+                int leaf = -child - 1;
+                return keys.equals(leafKeys[leaf], key) ? leaf : -1;
+            }
+            node = child;
+        }
+        return ends[node] - 1;
+    }
+
+    private int allocateNode() {
+        if (freeNodeCount > 0) {
+            return freeNodes[--freeNodeCount];
+        }
+
+        if (nodeCount == sizes.length) {
+            int capacity = sizes.length * 2;
+            children = Arrays.copyOf(children, capacity * RADIX);
+            sizes = Arrays.copyOf(sizes, capacity);
+            ends = Arrays.copyOf(ends, capacity);
+        }
+        return nodeCount++;
+    }
+
+    private void releasePath(int node, String key, int depth) {
+        while (node > 0) {
+            int next = depth < key.length() ? children[node * RADIX + index(key.charAt(depth))] : 0;
+
+            Arrays.fill(children, node * RADIX, node * RADIX + RADIX, 0);
+            sizes[node] = 0;
+            ends[node] = 0;
+            if (freeNodeCount == freeNodes.length) {
+                freeNodes = Arrays.copyOf(freeNodes, freeNodeCount * 2);
+            }
+            freeNodes[freeNodeCount++] = node;
+
+            node = next;
+            depth++;
+        }
+    }
+
+    private int allocateLeaf(String key, Object value) {
+        int leaf;
+        if (freeLeafCount > 0) {
+            leaf = freeLeaves[--freeLeafCount];
+        } else {
+            if (leafCount == leafKeys.length) {
+                leafKeys = Arrays.copyOf(leafKeys, leafCount * 2);
+                leafValues = Arrays.copyOf(leafValues, leafCount * 2);
+            }
+            leaf = leafCount++;
+        }
+        leafKeys[leaf] = keys.add(key);
+        leafValues[leaf] = value;
+        return leaf;
+    }
+
+    private void releaseLeaf(int leaf) {
+        keys.release(leafKeys[leaf]);
+        leafValues[leaf] = null;
+        if (freeLeafCount == freeLeaves.length) {
+            freeLeaves = Arrays.copyOf(freeLeaves, freeLeafCount * 2);
+        }
+        freeLeaves[freeLeafCount++] = leaf;
+
+        if (keys.garbage() > 4096 && keys.garbage() > keys.size() / 2) {
+            NumberArena compacted = new NumberArena();
+            boolean[] free = new boolean[leafCount];
+            for (int i = 0; i < freeLeafCount; i++) {
+                free[freeLeaves[i]] = true;
+            }
+            for (int i = 0; i < leafCount; i++) {
+                if (!free[i]) {
+                    leafKeys[i] = keys.copyTo(compacted, leafKeys[i]);
+                }
+            }
+            keys = compacted;
+        }
+    }
+}
@@ -0,0 +1,327 @@
+import java.io.IOException;
+import java.io.PrintWriter;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.function.Consumer;
+
+/**
+ * Phone book commands that carry their arguments on the same line, such as
+ * {@code add "John Doe" +44 20 1234}. Names containing spaces are quoted when more arguments follow.
+ */
+public class LineCommands {
+
+    static final String NAME_PATTERN = "^.{2,50}$";
+    static final String NUMBER_PATTERN = "^\\+?[0-9 ]{3,25}$";
+    static final String SEARCH_PATTERN = "^\\*?\\+?[0-9 ]{1,25}$";
+    static final int PAGE_SIZE = 100;
+
+    static void help(PrintWriter out) {
+        out.println("list [offset] [limit] | list from <name> - lists a page of contacts in alphabetical order");
+        out.println("show <name> - finds a contact by name");
+        out.println("fuzzy <name> - lists the contacts whose names are closest to a possibly misspelled name");
+        out.println("find <number> - searches for a contact by number");
+        out.println("search <digits> | search *<digits> - finds numbers by their beginning or ending");
+        out.println("add <name> <number> - adds a number, creating the contact if needed");
+        out.println("remove <name> <number> - removes a number from a contact");
+        out.println("delete <name> - removes a contact from the phone book");
+        out.println("stats [json <file> | prometheus <file>] - shows or exports command latencies and load/save figures");
+        out.println("changes <sequence> [limit] - lists the changes made after the given sequence number");
+        out.println("help - lists all valid commands");
+        out.println("flush - writes out buffered results and journal records (--batch), or changed shards (--shards)");
+        out.println("quit - closes the session");
+    }
+
+    /**
+     * Runs one command and returns false once the session should end.
+     */
+    static boolean execute(ContactBook contacts, String line, PrintWriter out) {
+        line = line.trim();
+        int space = line.indexOf(' ');
+        String command = space < 0 ? line : line.substring(0, space);
+        String arguments = space < 0 ? "" : line.substring(space + 1).trim();
+
+        long start = System.nanoTime();
+        switch (command) {
+            case "":
+                return true;
+            case "list":
+                out.print(page(contacts, arguments));
+                break;
+            case "show":
+                show(contacts, unquote(arguments), out);
+                break;
+            case "fuzzy":
+                if (contacts instanceof ContactStore) {
+                    fuzzy((ContactStore) contacts, unquote(arguments), out);
+                } else {
+                    out.println("This command is not available for this phone book!");
+                }
+                break;
+            case "find":
+                find(contacts, arguments, out);
+                break;
+            case "search":
+                if (contacts instanceof ContactStore) {
+                    search((ContactStore) contacts, arguments, PhoneBook.SEARCH_LIMIT, out);
+                } else {
+                    out.println("This command is not available for this phone book!");
+                }
+                break;
+            case "add":
+                add(contacts, arguments, out);
+                break;
+            case "remove":
+                remove(contacts, arguments, out);
+                break;
+            case "delete":
+                delete(contacts, unquote(arguments), out);
+                break;
+            case "stats":
+                Metrics.command(arguments, out);
+                break;
+            case "changes":
+                changes(arguments, out);
+                break;
+            case "help":
+                help(out);
+                break;
+            case "quit":
+            case "exit":
+                return false;
+            default:
+                out.println("Invalid command!");
+                return true;
+        }
+        Metrics.record(command, start);
+        return true;
+    }
+
+    /**
+     * Renders one page of contacts into a single string, so it reaches the terminal in one write.
+     */
+    static String page(ContactSource contacts, String arguments) {
+        String from = null;
+        int offset = 0;
+        int limit = PAGE_SIZE;
+        if (arguments.startsWith("from ")) {
+            from = unquote(arguments.substring(5).trim());
+        } else if (!arguments.isEmpty()) {
+            String[] parts = arguments.split("\\s+");
+            try {
+                offset = Integer.parseInt(parts[0]);
+                limit = parts.length > 1 ? Integer.parseInt(parts[1]) : limit;
+            } catch (NumberFormatException nfex) {
+                return "Usage: list [offset] [limit] | list from <name>\n";
+            }
+            if (offset < 0 || limit < 0) {
+                return "Usage: list [offset] [limit] | list from <name>\n";
+            }
+        }
+
+        if (contacts.isEmpty()) {
+            return "No records found, the phone book is empty!\n";
+        }
+
+        StringBuilder page = new StringBuilder(Math.max(0, Math.min(limit, PAGE_SIZE)) * 48);
+        Iterator<Map.Entry<String, List<String>>> entries = contacts.collated(from).iterator();
+        for (int i = 0; i < offset && entries.hasNext(); i++) {
+            entries.next();
+        }
+
+        int shown = 0;
+        while (shown < limit && entries.hasNext()) {
+            Map.Entry<String, List<String>> entry = entries.next();
+            page.append(entry.getKey()).append('\n');
+            for (String number : entry.getValue()) {
+                page.append(number).append('\n');
+            }
+            page.append('\n');
+            shown++;
+        }
+
+        if (entries.hasNext()) {
+            page.append("More contacts follow, continue with: list from ").append(entries.next().getKey()).append('\n');
+        } else if (shown == 0) {
+            page.append("No contacts in this range.\n");
+        }
+        return page.toString();
+    }
+
+    /**
+     * Prints the changes after a sequence number, one {@code <sequence>\t<kind>\t<name>[\t<number>]} line each.
+     * Nothing is printed once the caller is up to date, so a consumer polls with the last sequence it saw.
+     */
+    static void changes(String arguments, PrintWriter out) {
+        ChangeStream stream = PhoneBook.changes();
+        if (stream == null) {
+            out.println("This command is not available for this phone book!");
+            return;
+        }
+
+        String[] parts = arguments.split("\\s+");
+        long after;
+        int limit;
+        try {
+            after = Long.parseLong(parts[0]);
+            limit = parts.length > 1 ? Integer.parseInt(parts[1]) : PhoneBook.CHANGES_LIMIT;
+        } catch (NumberFormatException nfex) {
+            out.println("Usage: changes <sequence> [limit]");
+            return;
+        }
+
+        try {
+            stream.read(after, limit, out::println);
+        } catch (IOException ioex) {
+            out.println("Could not read the change stream: " + ioex.getMessage());
+        }
+    }
+
+    static void show(ContactSource contacts, String name, PrintWriter out) {
+        Map<String, List<String>> found = contacts.matches(name);
+        for (Map.Entry<String, List<String>> match : found.entrySet()) {
+            out.println(match.getKey());
+            for (String number : match.getValue()) {
+                out.println(number);
+            }
+        }
+        if (found.isEmpty()) {
+            out.println("Sorry, nothing found!");
+        }
+    }
+
+    static void fuzzy(ContactStore contacts, String name, PrintWriter out) {
+        if (!name.matches(NAME_PATTERN)) {
+            out.println("Name must be in range 2 - 50 symbols.");
+            return;
+        }
+
+        boolean found = false;
+        for (String candidate : contacts.fuzzy(name, PhoneBook.FUZZY_LIMIT)) {
+            List<String> numbers = contacts.numbers(candidate);
+            if (numbers == null) {
+                continue;
+            }
+            out.println(candidate);
+            for (String number : numbers) {
+                out.println(number);
+            }
+            out.println();
+            found = true;
+        }
+        if (!found) {
+            out.println("Sorry, nothing found!");
+        }
+    }
+
+    static void find(ContactSource contacts, String number, PrintWriter out) {
+        if (!number.matches(NUMBER_PATTERN)) {
+            out.println("Invalid number! May contain only digits, spaces and '+'. Min length 3, max length 25.");
+            return;
+        }
+
+        boolean found = false;
+        for (String name : contacts.owners(number)) {
+            out.println(name);
+            out.println(number);
+            found = true;
+        }
+        if (!found) {
+            out.println("Sorry, nothing found!");
+        }
+    }
+
+    static void search(ContactStore contacts, String pattern, int limit, PrintWriter out) {
+        if (!pattern.matches(SEARCH_PATTERN)) {
+            out.println("Invalid search! May contain only digits, spaces, a leading '+' or a leading '*'.");
+            return;
+        }
+
+        boolean suffix = pattern.startsWith("*");
+        String digits = suffix ? pattern.substring(1) : pattern;
+        int total = suffix ? contacts.countEndingWith(digits) : contacts.countStartingWith(digits);
+        if (total == 0) {
+            out.println("Sorry, nothing found!");
+            return;
+        }
+
+        Consumer<String> printer = key -> {
+            for (String name : contacts.owners(key)) {
+                List<String> numbers = contacts.numbers(name);
+                if (numbers == null) {
+                    continue;
+                }
+                for (String number : numbers) {
+                    if (ContactStore.normalize(number).equals(key)) {
+                        out.println(name);
+                        out.println(number);
+                    }
+                }
+            }
+        };
+        if (suffix) {
+            contacts.searchEndingWith(digits, limit, printer);
+        } else {
+            contacts.searchStartingWith(digits, limit, printer);
+        }
+
+        if (total > limit) {
+            out.printf("Showing %d of %d matching numbers, narrow the search to see the rest.%n", limit, total);
+        }
+    }
+
+    private static void add(ContactBook contacts, String arguments, PrintWriter out) {
+        String[] parts = nameAndRest(arguments);
+        if (parts == null || !parts[0].matches(NAME_PATTERN)) {
+            out.println("Usage: add <name> <number>. Name must be in range 2 - 50 symbols.");
+        } else if (!parts[1].matches(NUMBER_PATTERN)) {
+            out.println("Number may contain only '+', spaces and digits. Min length 3, max length 25.");
+        } else if (PhoneBook.addNumber(contacts, parts[0], parts[1])) {
+            out.printf("Successfully added number %s for contact '%s'.%n", parts[1], parts[0]);
+        } else {
+            out.printf("Number %s already available for contact '%s'.%n", parts[1], parts[0]);
+        }
+    }
+
+    private static void remove(ContactBook contacts, String arguments, PrintWriter out) {
+        String[] parts = nameAndRest(arguments);
+        if (parts == null || parts[1].isEmpty()) {
+            out.println("Usage: remove <name> <number>");
+        } else if (PhoneBook.removeNumber(contacts, parts[0], parts[1])) {
+            out.printf("Number %s was removed from the record for '%s'%n", parts[1], parts[0]);
+        } else {
+            out.println("Sorry, nothing found!");
+        }
+    }
+
+    private static void delete(ContactBook contacts, String name, PrintWriter out) {
+        if (PhoneBook.removeContact(contacts, name)) {
+            out.println("Contact was deleted successfully!");
+        } else {
+            out.println("Sorry, name not found!");
+        }
+    }
+
+    private static String unquote(String argument) {
+        if (argument.length() >= 2 && argument.startsWith("\"") && argument.endsWith("\"")) {
+            return argument.substring(1, argument.length() - 1);
+        }
+        return argument;
+    }
+
+    private static String[] nameAndRest(String arguments) {
+        if (arguments.startsWith("\"")) {
+            int close = arguments.indexOf('"', 1);
+            if (close < 0) {
+                return null;
+            }
+            return new String[]{arguments.substring(1, close), arguments.substring(close + 1).trim()};
+        }
+
+        int space = arguments.indexOf(' ');
+        if (space < 0) {
+            return new String[]{arguments, ""};
+        }
+        return new String[]{arguments.substring(0, space), arguments.substring(space + 1).trim()};
+    }
+}
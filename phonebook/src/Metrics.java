@@ -0,0 +1,199 @@
+import java.io.*;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.Map;
+import java.util.concurrent.ConcurrentSkipListMap;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Process wide operation metrics: a call counter and latency histogram per command, the bytes and
+ * time spent saving snapshots, the rate at which contacts were loaded and the lookup cache counters
+ * when a disk-backed phone book is served. Shown by the {@code stats} command and exported as
+ * JSON or Prometheus text.
+ */
+public class Metrics {
+
+    private static final Map<String, LatencyHistogram> commands = new ConcurrentSkipListMap<>();
+    private static final LatencyHistogram saves = new LatencyHistogram();
+    private static final LongAdder savedBytes = new LongAdder();
+    private static volatile long lastSaveBytes;
+    private static volatile long loadedEntries;
+    private static volatile long loadNanos;
+    private static volatile ContactCache cache;
+
+    private Metrics() {
+    }
+
+    /**
+     * Records one call of {@code command} that started at {@code start}, a {@link System#nanoTime()} reading.
+     */
+    static void record(String command, long start) {
+        commands.computeIfAbsent(command, key -> new LatencyHistogram()).record(System.nanoTime() - start);
+    }
+
+    static void saved(long bytes, long start) {
+        saves.record(System.nanoTime() - start);
+        savedBytes.add(bytes);
+        lastSaveBytes = bytes;
+    }
+
+    static void loaded(long entries, long start) {
+        loadedEntries = entries;
+        loadNanos = System.nanoTime() - start;
+    }
+
+    /**
+     * Includes the counters of the lookup cache in front of a disk-backed phone book.
+     */
+    static void cache(ContactCache contacts) {
+        cache = contacts;
+    }
+
+    private static double loadRate() {
+        return loadNanos == 0 ? 0 : loadedEntries / (loadNanos / 1e9);
+    }
+
+    static void report(PrintWriter out) {
+        out.printf("%-10s %10s %12s %12s %12s %12s %12s%n", "command", "count", "mean us", "p50 us", "p99 us", "p99.9 us", "max us");
+        for (Map.Entry<String, LatencyHistogram> entry : commands.entrySet()) {
+            row(out, entry.getKey(), entry.getValue());
+        }
+        row(out, "(save)", saves);
+        out.printf("Saved %d bytes in %d snapshots, %d bytes last time.%n", savedBytes.sum(), saves.count(), lastSaveBytes);
+        out.printf("Loaded %d entries in %.2f s (%.0f entries/s).%n", loadedEntries, loadNanos / 1e9, loadRate());
+        ContactCache cached = cache;
+        if (cached != null) {
+            long lookups = cached.hits() + cached.misses();
+            out.printf("Cache: %d hits, %d misses (%.1f%% hit rate), %d evictions, %d answers in %d bytes.%n",
+                    cached.hits(), cached.misses(), lookups == 0 ? 0 : 100.0 * cached.hits() / lookups,
+                    cached.evictions(), cached.size(), cached.bytes());
+        }
+    }
+
+    private static void row(PrintWriter out, String name, LatencyHistogram histogram) {
+        out.printf("%-10s %10d %12.1f %12.1f %12.1f %12.1f %12.1f%n", name, histogram.count(), histogram.mean() / 1e3,
+                histogram.percentile(0.5) / 1e3, histogram.percentile(0.99) / 1e3,
+                histogram.percentile(0.999) / 1e3, histogram.max() / 1e3);
+    }
+
+    static String json() {
+        StringBuilder json = new StringBuilder("{\n  \"commands\": {");
+        String separator = "\n";
+        for (Map.Entry<String, LatencyHistogram> entry : commands.entrySet()) {
+            json.append(separator).append("    \"").append(entry.getKey()).append("\": ");
+            histogramJson(json, entry.getValue());
+            separator = ",\n";
+        }
+        json.append("\n  },\n  \"save\": ");
+        histogramJson(json, saves);
+        json.append(",\n  \"saved_bytes\": ").append(savedBytes.sum())
+                .append(",\n  \"last_save_bytes\": ").append(lastSaveBytes)
+                .append(",\n  \"loaded_entries\": ").append(loadedEntries)
+                .append(",\n  \"load_seconds\": ").append(loadNanos / 1e9)
+                .append(",\n  \"load_entries_per_second\": ").append(Math.round(loadRate()));
+        ContactCache cached = cache;
+        if (cached != null) {
+            json.append(",\n  \"cache\": {\"hits\": ").append(cached.hits())
+                    .append(", \"misses\": ").append(cached.misses())
+                    .append(", \"evictions\": ").append(cached.evictions())
+                    .append(", \"entries\": ").append(cached.size())
+                    .append(", \"bytes\": ").append(cached.bytes()).append('}');
+        }
+        json.append("\n}\n");
+        return json.toString();
+    }
+
+    private static void histogramJson(StringBuilder json, LatencyHistogram histogram) {
+        json.append("{\"count\": ").append(histogram.count())
+                .append(", \"sum_ns\": ").append(histogram.sum())
+                .append(", \"p50_ns\": ").append(histogram.percentile(0.5))
+                .append(", \"p90_ns\": ").append(histogram.percentile(0.9))
+                .append(", \"p99_ns\": ").append(histogram.percentile(0.99))
+                .append(", \"p999_ns\": ").append(histogram.percentile(0.999))
+                .append(", \"max_ns\": ").append(histogram.max()).append('}');
+    }
+
+    static String prometheus() {
+        StringBuilder text = new StringBuilder();
+        text.append("# TYPE phonebook_command_seconds summary\n");
+        for (Map.Entry<String, LatencyHistogram> entry : commands.entrySet()) {
+            summary(text, "phonebook_command_seconds", "command=\"" + entry.getKey() + "\"", entry.getValue());
+        }
+        text.append("# TYPE phonebook_save_seconds summary\n");
+        summary(text, "phonebook_save_seconds", "", saves);
+        text.append("# TYPE phonebook_saved_bytes_total counter\n")
+                .append("phonebook_saved_bytes_total ").append(savedBytes.sum()).append('\n')
+                .append("# TYPE phonebook_last_save_bytes gauge\n")
+                .append("phonebook_last_save_bytes ").append(lastSaveBytes).append('\n')
+                .append("# TYPE phonebook_loaded_entries gauge\n")
+                .append("phonebook_loaded_entries ").append(loadedEntries).append('\n')
+                .append("# TYPE phonebook_load_entries_per_second gauge\n")
+                .append("phonebook_load_entries_per_second ").append(Math.round(loadRate())).append('\n');
+        ContactCache cached = cache;
+        if (cached != null) {
+            text.append("# TYPE phonebook_cache_hits_total counter\n")
+                    .append("phonebook_cache_hits_total ").append(cached.hits()).append('\n')
+                    .append("# TYPE phonebook_cache_misses_total counter\n")
+                    .append("phonebook_cache_misses_total ").append(cached.misses()).append('\n')
+                    .append("# TYPE phonebook_cache_evictions_total counter\n")
+                    .append("phonebook_cache_evictions_total ").append(cached.evictions()).append('\n')
+                    .append("# TYPE phonebook_cache_bytes gauge\n")
+                    .append("phonebook_cache_bytes ").append(cached.bytes()).append('\n');
+        }
+        return text.toString();
+    }
+
+    private static void summary(StringBuilder text, String name, String label, LatencyHistogram histogram) {
+        String labels = label.isEmpty() ? "{" : "{" + label + ",";
+        for (double quantile : new double[]{0.5, 0.9, 0.99, 0.999}) {
+            text.append(name).append(labels).append("quantile=\"").append(quantile).append("\"} ")
+                    .append(histogram.percentile(quantile) / 1e9).append('\n');
+        }
+        String plain = label.isEmpty() ? "" : "{" + label + "}";
+        text.append(name).append("_sum").append(plain).append(' ').append(histogram.sum() / 1e9).append('\n');
+        text.append(name).append("_count").append(plain).append(' ').append(histogram.count()).append('\n');
+    }
+
+    /**
+     * Writes the metrics to {@code path} as {@code json} or {@code prometheus} text.
+     */
+    static void export(String format, Path path) throws IOException {
+        String content;
+        if (format.equals("json")) {
+            content = json();
+        } else if (format.equals("prometheus")) {
+            content = prometheus();
+        } else {
+            throw new IllegalArgumentException("Unknown metrics format: " + format);
+        }
+
+        Path temp = path.resolveSibling(path.getFileName() + ".tmp");
+        try (Writer writer = new OutputStreamWriter(new FileOutputStream(temp.toFile()), StandardCharsets.UTF_8)) {
+            writer.write(content);
+        }
+        PhoneBook.replaceFile(temp, path);
+    }
+
+    /**
+     * Handles {@code stats}, {@code stats json <file>} and {@code stats prometheus <file>}.
+     */
+    static void command(String arguments, PrintWriter out) {
+        if (arguments.isEmpty()) {
+            report(out);
+            return;
+        }
+
+        String[] parts = arguments.split("\\s+", 2);
+        if (parts.length < 2 || !(parts[0].equals("json") || parts[0].equals("prometheus"))) {
+            out.println("Usage: stats [json <file> | prometheus <file>]");
+            return;
+        }
+        try {
+            export(parts[0], Paths.get(parts[1]));
+            out.printf("Metrics written to %s.%n", parts[1]);
+        } catch (IOException ioex) {
+            out.println("Could not write metrics: " + ioex.getMessage());
+        }
+    }
+}
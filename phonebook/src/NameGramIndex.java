@@ -0,0 +1,204 @@
+import java.util.*;
+
+/**
+ * Trigram inverted index over contact names for typo tolerant lookups. Names get integer ids and
+ * every trigram maps to a growable array of ids; removed names leave tombstones that are purged by
+ * rebuilding the index once they outnumber the live names.
+ */
+public class NameGramIndex {
+
+    private static final int CANDIDATES = 64;
+    private static final double MIN_SIMILARITY = 0.2;
+    // trigrams shared by more names than this say little about a match and are skipped when possible
+    private static final int MAX_POSTINGS = 50_000;
+
+    private final Map<String, Integer> ids = new HashMap<>();
+    // open addressing from packed trigram to its id list, the list's first slot holds its length
+    private long[] gramKeys = new long[1024];
+    private int[][] postings = new int[1024][];
+    private int gramCount;
+    private String[] names = new String[64];
+    private int nextId;
+
+    void add(String name) {
+        if (ids.containsKey(name)) {
+            return;
+        }
+
+        if (nextId == names.length) {
+            names = Arrays.copyOf(names, names.length * 2);
+        }
+        int id = nextId++;
+        names[id] = name;
+        ids.put(name, id);
+        for (long gram : grams(name)) {
+            int slot = slot(gram);
+            int[] list = postings[slot];
+            if (list == null) {
+                list = new int[4];
+                gramKeys[slot] = gram;
+                if (++gramCount * 2 > gramKeys.length) {
+                    postings[slot] = list;
+                    grow();
+                    slot = slot(gram);
+                }
+            } else if (list[0] + 1 == list.length) {
+                list = Arrays.copyOf(list, list.length * 2);
+            }
+            list[++list[0]] = id;
+            postings[slot] = list;
+        }
+    }
+
+    private int slot(long gram) {
+        int mask = gramKeys.length - 1;
+        int slot = Long.hashCode(gram * 0x9E3779B97F4A7C15L) & mask;
+        while (postings[slot] != null && gramKeys[slot] != gram) {
+            slot = (slot + 1) & mask;
+        }
+        return slot;
+    }
+
+    private void grow() {
+        long[] oldGrams = gramKeys;
+        int[][] oldPostings = postings;
+        gramKeys = new long[oldGrams.length * 2];
+        postings = new int[oldGrams.length * 2][];
+        for (int i = 0; i < oldGrams.length; i++) {
+            if (oldPostings[i] != null) {
+                int slot = slot(oldGrams[i]);
+                gramKeys[slot] = oldGrams[i];
+                postings[slot] = oldPostings[i];
+            }
+        }
+    }
+
+    void remove(String name) {
+        Integer id = ids.remove(name);
+        if (id == null) {
+            return;
+        }
+
+        names[id] = null;
+        if (nextId > 1024 && ids.size() < (nextId - ids.size())) {
+            rebuild();
+        }
+    }
+
+    private void rebuild() {
+        List<String> live = new ArrayList<>(ids.keySet());
+        ids.clear();
+        gramKeys = new long[1024];
+        postings = new int[1024][];
+        gramCount = 0;
+        names = new String[Math.max(64, live.size() * 2)];
+        nextId = 0;
+        for (String name : live) {
+            add(name);
+        }
+    }
+
+    /**
+     * Returns up to {@code limit} names ordered by edit distance to the query, then by trigram overlap.
+     */
+    List<String> search(String query, int limit) {
+        long[] queryGrams = grams(query);
+        List<int[]> lists = new ArrayList<>();
+        for (long gram : queryGrams) {
+            int[] list = postings[slot(gram)];
+            if (list != null) {
+                lists.add(list);
+            }
+        }
+        lists.sort(Comparator.comparingInt(list -> list[0]));
+
+        Map<Integer, Integer> shared = new HashMap<>();
+        for (int[] list : lists) {
+            if (list[0] > MAX_POSTINGS && !shared.isEmpty()) {
+                break;
+            }
+            for (int i = 1; i <= list[0]; i++) {
+                if (names[list[i]] != null) {
+                    shared.merge(list[i], 1, Integer::sum);
+                }
+            }
+        }
+
+        // keep the best candidates by Dice coefficient, then rank those by edit distance
+        PriorityQueue<double[]> best = new PriorityQueue<>(Comparator.comparingDouble(candidate -> candidate[1]));
+        for (Map.Entry<Integer, Integer> candidate : shared.entrySet()) {
+            // a padded name of n characters has n + 1 trigrams, close enough to the distinct count
+            double dice = 2.0 * candidate.getValue() / (queryGrams.length + names[candidate.getKey()].length() + 1);
+            if (dice < MIN_SIMILARITY) {
+                continue;
+            }
+            best.add(new double[]{candidate.getKey(), dice});
+            if (best.size() > CANDIDATES) {
+                best.poll();
+            }
+        }
+
+        String needle = query.toLowerCase();
+        List<double[]> ranked = new ArrayList<>();
+        for (double[] candidate : best) {
+            String name = names[(int) candidate[0]].toLowerCase();
+            int distance = distance(needle, name);
+            for (String word : name.split("\\s+")) {
+                distance = Math.min(distance, distance(needle, word));
+            }
+            ranked.add(new double[]{candidate[0], candidate[1], distance});
+        }
+        ranked.sort(Comparator.<double[]>comparingDouble(candidate -> candidate[2])
+                .thenComparing(candidate -> -candidate[1]));
+
+        List<String> results = new ArrayList<>();
+        for (int i = 0; i < ranked.size() && i < limit; i++) {
+            results.add(names[(int) ranked.get(i)[0]]);
+        }
+        return results;
+    }
+
+    // distinct trigrams of the lowercased name padded with two leading blanks and one trailing
+    private static long[] grams(String name) {
+        String padded = "  " + name.toLowerCase() + " ";
+        long[] grams = new long[padded.length() - 2];
+        for (int i = 0; i < grams.length; i++) {
+            grams[i] = (long) padded.charAt(i) << 32 | (long) padded.charAt(i + 1) << 16 | padded.charAt(i + 2);
+        }
+        Arrays.sort(grams);
+
+        int distinct = 0;
+        for (int i = 0; i < grams.length; i++) {
+            if (i == 0 || grams[i] != grams[i - 1]) {
+                grams[distinct++] = grams[i];
+            }
+        }
+        return Arrays.copyOf(grams, distinct);
+    }
+
+    // optimal string alignment distance, so a swapped pair of letters costs one edit
+    private static int distance(String a, String b) {
+        int[] previous2 = new int[b.length() + 1];
+        int[] previous = new int[b.length() + 1];
+        int[] current = new int[b.length() + 1];
+        for (int j = 0; j <= b.length(); j++) {
+            previous[j] = j;
+        }
+
+        for (int i = 1; i <= a.length(); i++) {
+            current[0] = i;
+            for (int j = 1; j <= b.length(); j++) {
+                int cost = a.charAt(i - 1) == b.charAt(j - 1) ? 0 : 1;
+                current[j] = Math.min(Math.min(current[j - 1] + 1, previous[j] + 1), previous[j - 1] + cost);
+                if (i > 1 && j > 1 && a.charAt(i - 1) == b.charAt(j - 2) && a.charAt(i - 2) == b.charAt(j - 1)) {
+                    current[j] = Math.min(current[j], previous2[j - 2] + 1);
+                }
+            }
+            int[] recycled = previous2;
+            previous2 = previous;
+            previous = current;
+            current = recycled;
+        }
+        return previous[b.length()];
+    }
+}
@@ -0,0 +1,161 @@
+import java.util.Arrays;
+
+/**
+ * Phone numbers packed as nibbles in one shared byte array. An entry is a length byte followed by
+ * one nibble per character: 0-9 for digits, 10 for '+' and 11 for a space, so the exact typed form
+ * survives while taking about half a byte per character and no object of its own.
+ */
+public class NumberArena {
+
+    private static final int MAX_LENGTH = 255;
+    private static final char[] SYMBOLS = {'0', '1', '2', '3', '4', '5', '6', '7', '8', '9', '+', ' '};
+
+    private byte[] data = new byte[256];
+    private int size;
+    private int garbage;
+
+    /**
+     * The nibble a number character packs into, shared with every format that stores numbers this way.
+     */
+    static int nibble(char c) {
+        if (c >= '0' && c <= '9') {
+            return c - '0';
+        } else if (c == '+') {
+            return 10;
+        } else if (c == ' ') {
+            return 11;
+        }
+        throw new IllegalArgumentException("Not a phone number character: " + c);
+    }
+
+    static char symbol(int nibble) {
+        return SYMBOLS[nibble];
+    }
+
+    static int encodedSize(int length) {
+        return 1 + (length + 1) / 2;
+    }
+
+    int size() {
+        return size;
+    }
+
+    int garbage() {
+        return garbage;
+    }
+
+    int add(String number) {
+        int length = number.length();
+        if (length > MAX_LENGTH) {
+            throw new IllegalArgumentException("Number is longer than " + MAX_LENGTH + " characters");
+        }
+
+        int needed = encodedSize(length);
+        if (size + needed > data.length) {
+            data = Arrays.copyOf(data, Math.max(data.length * 2, size + needed));
+        }
+
+        int offset = size;
+        data[offset] = (byte) length;
+        for (int i = 0; i < length; i += 2) {
+            int high = nibble(number.charAt(i));
+            int low = i + 1 < length ? nibble(number.charAt(i + 1)) : 0;
+            data[offset + 1 + i / 2] = (byte) (high << 4 | low);
+        }
+        size += needed;
+        return offset;
+    }
+
+    void release(int offset) {
+        garbage += encodedSize(length(offset));
+    }
+
+    int length(int offset) {
+        return data[offset] & 0xFF;
+    }
+
+    char charAt(int offset, int index) {
+        int b = data[offset + 1 + index / 2];
+        return symbol((index & 1) == 0 ? (b >> 4) & 0xF : b & 0xF);
+    }
+
+    String get(int offset) {
+        int length = length(offset);
+        char[] chars = new char[length];
+        for (int i = 0; i < length; i++) {
+            chars[i] = charAt(offset, i);
+        }
+        return new String(chars);
+    }
+
+    boolean equals(int offset, String number) {
+        int length = length(offset);
+        if (length != number.length()) {
+            return false;
+        }
+        for (int i = 0; i < length; i++) {
+            if (charAt(offset, i) != number.charAt(i)) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Compares the canonical form of the stored number, see {@link ContactStore#normalize}, against a canonical key.
+     */
+    boolean normalizedEquals(int offset, String key) {
+        int length = length(offset);
+        int k = 0;
+        for (int i = 0; i < length; i++) {
+            char c = charAt(offset, i);
+            if (c == ' ' || c == '+' && k > 0) {
+                continue;
+            }
+            if (k == key.length() || c != key.charAt(k)) {
+                return false;
+            }
+            k++;
+        }
+        return k == key.length();
+    }
+
+    boolean startsWith(int offset, String prefix) {
+        int length = length(offset);
+        if (length < prefix.length()) {
+            return false;
+        }
+        for (int i = 0; i < prefix.length(); i++) {
+            if (charAt(offset, i) != prefix.charAt(i)) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Read-only view of the entries added so far. Entries are never overwritten and growing the arena
+     * copies it to a new array, so the view stays valid whatever the arena does afterwards.
+     */
+    NumberArena view() {
+        NumberArena view = new NumberArena();
+        view.data = data;
+        view.size = size;
+        return view;
+    }
+
+    /**
+     * Copies a live entry into another arena, used when compacting away released entries.
+     */
+    int copyTo(NumberArena target, int offset) {
+        int needed = encodedSize(length(offset));
+        if (target.size + needed > target.data.length) {
+            target.data = Arrays.copyOf(target.data, Math.max(target.data.length * 2, target.size + needed));
+        }
+
+        int copied = target.size;
+        System.arraycopy(data, offset, target.data, copied, needed);
+        target.size += needed;
+        return copied;
+    }
+}
@@ -1,96 +1,380 @@
 import java.util.*;
 import java.io.*;
-import java.util.regex.Matcher;
-import java.util.regex.Pattern;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
 
 public class PhoneBook {
 
     private static final String DATA_PATH = "src/contacts.csv";
+    private static final String JOURNAL_PATH = "src/contacts.journal";
+    private static final String IMAGE_PATH = "src/contacts.pbk";
+    private static final String BLOCKS_PATH = "src/contacts.blk";
+    private static final String SHARDS_PATH = "src/contacts.shards";
+    private static final int COMPACT_THRESHOLD = 1000;
+    private static final int SERVER_PORT = 5555;
+    private static final int HTTP_PORT = 8080;
+    private static final int FLUSH_INTERVAL_MS = 200;
+    private static final int FLUSH_RECORDS = 256;
+    private static final int SHARD_COUNT = 64;
+    // share of the heap for cached lookups when the book is served from disk
+    private static final int CACHE_HEAP_FRACTION = 16;
+    static final int SEARCH_LIMIT = 50;
+    static final int FUZZY_LIMIT = 10;
+    static final int CHANGES_LIMIT = 1000;
+
+    private static ContactJournal journal;
+    private static ChangeStream changes;
+    private static final ExecutorService compactor = Executors.newSingleThreadExecutor();
+    private static final AtomicBoolean compacting = new AtomicBoolean();
+    private static final ScheduledExecutorService flusher = Executors.newSingleThreadScheduledExecutor(task -> {
+        Thread thread = new Thread(task, "journal-flusher");
+        thread.setDaemon(true);
+        return thread;
+    });
+
+    private static final Set<String> STORE_COMMANDS = Set.of("search", "fuzzy", "add", "edit", "delete", "pack", "import", "export", "changes", "compress");
+
+    private static boolean saveContacts(Iterable<Map.Entry<String, List<String>>> contacts) {
+        return saveContacts(DATA_PATH, contacts);
+    }
 
-    private static void saveContacts(Map<String, List<String>> contacts) {
-        try (PrintWriter writer = new PrintWriter(DATA_PATH)) {
-            if (!contacts.isEmpty()) {
-                for (Map.Entry<String, List<String>> entry : contacts.entrySet()) {
-                    String line = String.format("%s,\"%s\"",
-                            entry.getKey(), entry.getValue().toString().replaceAll("\\[|]", ""));
-                    writer.println(line);
+    // the live file is only ever replaced whole, so a crash mid-save leaves the previous snapshot intact
+    static boolean saveContacts(String path, Iterable<Map.Entry<String, List<String>>> contacts) {
+        long start = System.nanoTime();
+        Path target = Paths.get(path);
+        Path temp = target.resolveSibling(target.getFileName() + ".tmp");
+        try {
+            try (FileOutputStream file = new FileOutputStream(temp.toFile());
+                 PrintWriter writer = new PrintWriter(new BufferedWriter(
+                         new OutputStreamWriter(file, StandardCharsets.UTF_8), 1 << 16))) {
+                for (Map.Entry<String, List<String>> entry : contacts) {
+                    writer.print(entry.getKey());
+                    writer.print(",\"");
+                    writer.print(String.join(", ", entry.getValue()));
+                    writer.print("\"\n");
+                }
+                writer.flush();
+                if (writer.checkError()) {
+                    throw new IOException("Could not write " + temp);
                 }
+                file.getFD().sync();
             }
+            long bytes = Files.size(temp);
+            replaceFile(temp, target);
+            Metrics.saved(bytes, start);
+            return true;
 
         } catch (IOException ioex) {
             System.err.println(ioex.getMessage());
+            try {
+                Files.deleteIfExists(temp);
+            } catch (IOException ignored) {
+                // the next save overwrites it anyway
+            }
+            return false;
         }
     }
 
-    private static void loadContacts(Map<String, List<String>> contacts) {
-        try (BufferedReader reader = new BufferedReader(new FileReader(DATA_PATH))) {
+    /**
+     * Moves a fully written and synced file over {@code path} in one step, then syncs the directory
+     * so the rename itself survives a crash.
+     */
+    static void replaceFile(Path temp, Path path) throws IOException {
+        try {
+            Files.move(temp, path, StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+        } catch (AtomicMoveNotSupportedException unsupported) {
+            Files.move(temp, path, StandardCopyOption.REPLACE_EXISTING);
+        }
 
-            Pattern pattern = Pattern.compile("^([^,\"]{2,50}),\"([0-9+, ]+)\"$");
+        Path directory = path.toAbsolutePath().getParent();
+        try (FileChannel channel = FileChannel.open(directory, StandardOpenOption.READ)) {
+            channel.force(true);
+        } catch (IOException unsupported) {
+            // not every platform can sync a directory, the rename is still atomic there
+        }
+    }
 
-            while (true) {
-                String line = reader.readLine();
-                if (line == null) {
-                    break;
-                }
+    /**
+     * The stream of changes made to the loaded phone book, null when no store was loaded.
+     */
+    static ChangeStream changes() {
+        return changes;
+    }
+
+    private static void journalChange(char op, String name, String number) {
+        try {
+            journal.append(op, name, number);
+        } catch (IOException ioex) {
+            System.err.println("Could not write to the journal: " + ioex.getMessage());
+        }
+    }
+
+    private static void recordChange(ContactStore contacts, char op, String name, String number) {
+        journalChange(op, name, number);
+
+        // scaling with the book keeps the snapshot copy amortized O(1) per mutation
+        if (journal.size() >= Math.max(COMPACT_THRESHOLD, contacts.size() / 4)) {
+            compactContacts(contacts);
+        }
+    }
+
+    // sharded books journal their own changes, under the lock that orders them across shards
+    static boolean addNumber(ContactBook book, String name, String number) {
+        if (!(book instanceof ContactStore)) {
+            return book.addNumber(name, number);
+        }
+
+        ContactStore contacts = (ContactStore) book;
+        synchronized (contacts) {
+            boolean created = !contacts.contains(name);
+            if (!contacts.addNumber(name, number)) {
+                return false;
+            }
+            recordChange(contacts, created ? ContactJournal.ADD_CONTACT : ContactJournal.ADD, name, number);
+            return true;
+        }
+    }
+
+    static boolean removeNumber(ContactBook book, String name, String number) {
+        if (!(book instanceof ContactStore)) {
+            return book.removeNumber(name, number);
+        }
 
-                Matcher matcher = pattern.matcher(line);
-                if (matcher.find()) {
-                    String[] numbers = matcher.group(2).split(",\\s*");
-                    contacts.put(matcher.group(1), Arrays.asList(numbers));
+        ContactStore contacts = (ContactStore) book;
+        synchronized (contacts) {
+            if (!contacts.removeNumber(name, number)) {
+                return false;
+            }
+            recordChange(contacts, ContactJournal.REMOVE, name, number);
+            if (!contacts.contains(name)) {
+                journalChange(ContactJournal.DELETE, name, null);
+            }
+            return true;
+        }
+    }
+
+    static boolean removeContact(ContactBook book, String name) {
+        if (!(book instanceof ContactStore)) {
+            return book.removeContact(name);
+        }
+
+        ContactStore contacts = (ContactStore) book;
+        synchronized (contacts) {
+            if (!contacts.removeContact(name)) {
+                return false;
+            }
+            recordChange(contacts, ContactJournal.DELETE, name, null);
+            return true;
+        }
+    }
+
+    private static Future<Boolean> compactContacts(ContactStore contacts) {
+        if (!compacting.compareAndSet(false, true)) {
+            return null;
+        }
+
+        // taken before the rotation, so the snapshot holds exactly what the rotated journal covered
+        Iterable<Map.Entry<String, List<String>>> snapshot = contacts.entries();
+
+        try {
+            journal.rotate();
+        } catch (IOException ioex) {
+            System.err.println("Could not rotate the journal: " + ioex.getMessage());
+            compacting.set(false);
+            return null;
+        }
+
+        return compactor.submit(() -> {
+            try {
+                if (saveContacts(snapshot)) {
+                    journal.discardRotated();
+                    return true;
                 }
+            } catch (IOException ioex) {
+                System.err.println(ioex.getMessage());
+            } finally {
+                compacting.set(false);
             }
+            return false;
+        });
+    }
+
+    // callers hold the store's monitor, so no other compaction can start meanwhile
+    private static boolean compactContactsNow(ContactStore contacts) {
+        try {
+            compactor.submit(() -> { }).get();
+            Future<Boolean> saved = compactContacts(contacts);
+            return saved != null && saved.get();
+        } catch (InterruptedException interrupted) {
+            Thread.currentThread().interrupt();
+            return false;
+        } catch (ExecutionException failed) {
+            System.err.println(failed.getCause().getMessage());
+            return false;
+        }
+    }
+
+    private static void loadContacts(ContactStore contacts) {
+        Path shards = shardDirectory();
+        if (shards != null) {
+            System.err.printf("The phone book is kept in shards in %s, open it with --shards %s.\n", shards, shards);
+            System.exit(1);
+        }
 
+        ContactCsvReader reader = new ContactCsvReader(Paths.get(DATA_PATH));
+        long start = System.nanoTime();
+        try {
+            reader.readPartials(contacts::addAll);
+            Metrics.loaded(reader.rows(), start);
         } catch (IOException ioex) {
             System.err.println("Could not load contacts, phone book is empty!");
         }
+
+        try {
+            journal = new ContactJournal(JOURNAL_PATH);
+            if (journal.replay(contacts) > 0) {
+                compactContacts(contacts);
+            }
+            journal.setSyncEvery(FLUSH_RECORDS);
+            changes = new ChangeStream(journal);
+        } catch (IOException ioex) {
+            System.err.println("Could not open the journal: " + ioex.getMessage());
+            System.exit(1);
+        }
+
+        // changes reach the disk in groups, at the latest FLUSH_INTERVAL_MS after they were made
+        flusher.scheduleWithFixedDelay(PhoneBook::flushJournal, FLUSH_INTERVAL_MS, FLUSH_INTERVAL_MS, TimeUnit.MILLISECONDS);
+        Runtime.getRuntime().addShutdownHook(new Thread(PhoneBook::flushJournal));
+    }
+
+    private static void flushJournal() {
+        try {
+            journal.flush();
+        } catch (IOException ioex) {
+            System.err.println("Could not write to the journal: " + ioex.getMessage());
+        }
+    }
+
+    private static void importContacts(ContactStore contacts, String path) {
+        ContactCsvReader reader = new ContactCsvReader(Paths.get(path));
+        long start = System.nanoTime();
+        long[] merged = new long[2];
+
+        synchronized (contacts) {
+            int syncEvery = journal.syncEvery();
+            try {
+                // journaled like any other change, but synced once when the import is done
+                journal.setSyncEvery(0);
+                reader.readParallel((name, number) -> {
+                    boolean created = !contacts.contains(name);
+                    if (contacts.addNumber(name, number)) {
+                        journalChange(created ? ContactJournal.ADD_CONTACT : ContactJournal.ADD, name, number);
+                        merged[0]++;
+                    } else {
+                        merged[1]++;
+                    }
+                });
+            } catch (IOException ioex) {
+                System.err.println("Could not import contacts: " + ioex.getMessage());
+            }
+            try {
+                journal.setSyncEvery(syncEvery);
+            } catch (IOException ioex) {
+                System.err.println("Could not write to the journal: " + ioex.getMessage());
+            }
+            if (merged[0] > 0 && !compactContactsNow(contacts)) {
+                System.err.println("Imported contacts could not be saved to " + DATA_PATH);
+            }
+        }
+
+        Metrics.record("import", start);
+        double seconds = (System.nanoTime() - start) / 1e9;
+        System.out.printf("Imported %d rows in %.2f s (%.0f rows/s): %d numbers added, %d duplicates skipped, %d rows rejected.\n",
+                reader.rows(), seconds, reader.rows() / seconds, merged[0], merged[1], reader.rejected());
+    }
+
+    private static void exportContacts(ContactStore contacts, String path) {
+        long start = System.nanoTime();
+        if (saveContacts(path, contacts.entries())) {
+            Metrics.record("export", start);
+            double seconds = (System.nanoTime() - start) / 1e9;
+            System.out.printf("Exported %d contacts to %s in %.2f s (%.0f rows/s).\n",
+                    contacts.size(), path, seconds, contacts.size() / seconds);
+        }
     }
 
     private static void listCommands() {
-        System.out.println("list - lists all saved contacts in alphabetical  order");
+        System.out.println("list [offset] [limit] | list from <name> - lists a page of contacts in alphabetical order");
         System.out.println("show - finds a contact by name");
+        System.out.println("fuzzy - lists the contacts whose names are closest to a possibly misspelled name");
         System.out.println("find - searches for a contact by number");
+        System.out.println("search - finds numbers by their beginning or, prefixed with '*', their ending");
         System.out.println("add - saves a new contact entry into the phone book");
         System.out.println("edit - modifies an existing contact");
         System.out.println("delete - removes a contact from the phone book");
+        System.out.println("import <file> - merges all contacts from a CSV file into the phone book");
+        System.out.println("export <file> - writes all contacts into a CSV file");
+        System.out.println("pack - writes the phone book into the binary image " + IMAGE_PATH);
+        System.out.println("compress - writes the phone book into the compressed block file " + BLOCKS_PATH);
+        System.out.println("unpack - writes an opened binary image or block file back to " + DATA_PATH);
+        System.out.println("stats [json <file> | prometheus <file>] - shows or exports command latencies and load/save figures");
+        System.out.println("changes <sequence> [limit] - lists the changes made after the given sequence number");
         System.out.println("help - lists all valid commands");
         System.out.println("---------------------------");
     }
 
-    private static void listContacts(Map<String, List<String>> contacts) {
-        if (!contacts.isEmpty()) {
-            for (Map.Entry<String, List<String>> entry : contacts.entrySet()) {
-                System.out.println(entry.getKey());
-                for (String number : entry.getValue()) {
-                    System.out.println(number);
-                }
-                System.out.println();
-            }
-        } else {
-            System.out.println("No records found, the phone book is empty!");
-        }
+    private static void listContacts(ContactSource contacts, String argument) {
+        long start = System.nanoTime();
+        System.out.print(LineCommands.page(contacts, argument));
+        Metrics.record("list", start);
 
         System.out.println();
         System.out.println("Type a command or 'exit' to quit. For a list of valid commands use 'help':");
     }
 
-    private static void showContact(Map<String, List<String>> contacts, Scanner input) {
+    private static void showContact(ContactSource contacts, Scanner input) {
         System.out.println("Enter the name you are looking for:");
         String name = input.nextLine().trim();
 
-        if (contacts.containsKey(name)) {
-            System.out.println(name);
-            for (String number : contacts.get(name)) {
-                System.out.println(number);
-            }
-        } else {
-            System.out.println("Sorry, nothing found!");
-        }
+        long start = System.nanoTime();
+        PrintWriter out = new PrintWriter(System.out);
+        LineCommands.show(contacts, name, out);
+        out.flush();
+        Metrics.record("show", start);
 
         System.out.println();
         System.out.println("Type a command or 'exit' to quit. For a list of valid commands use 'help':");
     }
 
-    private static void findContact(Map<String, List<String>> contacts, Scanner input) {
+    private static void fuzzyContact(ContactStore contacts, Scanner input) {
+        System.out.println("Enter the name you are looking for, it may be misspelled:");
+        String name = input.nextLine().trim();
+
+        long start = System.nanoTime();
+        PrintWriter out = new PrintWriter(System.out);
+        LineCommands.fuzzy(contacts, name, out);
+        out.flush();
+        Metrics.record("fuzzy", start);
+
+        System.out.println();
+        System.out.println("Type a command or 'exit' to quit. For a list of valid commands use 'help':");
+    }
+
+    private static void findContact(ContactSource contacts, Scanner input) {
         System.out.println("Enter a number to see to whom does it belong:");
         String number = input.nextLine().trim();
 
@@ -100,18 +384,38 @@ public class PhoneBook {
             number = input.nextLine().trim();
         }
 
-        for (Map.Entry<String, List<String>> entry : contacts.entrySet()) {
-            if (entry.getValue().contains(number)) {
-                System.out.println(entry.getKey());
-                System.out.println(number);
-            }
+        long start = System.nanoTime();
+        for (String name : contacts.owners(number)) {
+            System.out.println(name);
+            System.out.println(number);
         }
+        Metrics.record("find", start);
 
         System.out.println();
         System.out.println("Type a command or 'exit' to quit. For a list of valid commands use 'help':");
     }
 
-    private static void addContact(Map<String, List<String>> contacts, Scanner input) {
+    private static void searchNumbers(ContactStore contacts, Scanner input) {
+        System.out.println("Enter the beginning of a number, or '*' followed by its ending:");
+        String pattern = input.nextLine().trim();
+
+        while (!pattern.matches("^\\*?\\+?[0-9 ]{1,25}$")) {
+            System.out.println("Invalid search! May contain only digits, spaces, a leading '+' or a leading '*'.");
+            System.out.println("Enter search:");
+            pattern = input.nextLine().trim();
+        }
+
+        long start = System.nanoTime();
+        PrintWriter out = new PrintWriter(System.out);
+        LineCommands.search(contacts, pattern, SEARCH_LIMIT, out);
+        out.flush();
+        Metrics.record("search", start);
+
+        System.out.println();
+        System.out.println("Type a command or 'exit' to quit. For a list of valid commands use 'help':");
+    }
+
+    private static void addContact(ContactStore contacts, Scanner input) {
         System.out.println("You are about to add a new contact to the phone book.");
         String name;
         String number;
@@ -136,35 +440,32 @@ public class PhoneBook {
             }
         }
 
-        if (contacts.containsKey(name)) {
+        long start = System.nanoTime();
+        if (contacts.contains(name)) {
             System.out.printf("'%s' already exists in the phone book!\n", name);
 
-            if (contacts.get(name).contains(number)) {
+            if (!addNumber(contacts, name, number)) {
                 System.out.printf("Number %s already available for contact '%s'.\n", number, name);
             } else {
-                contacts.get(name).add(number);
-                saveContacts(contacts);
                 System.out.printf("Successfully added number %s for contact '%s'.\n", number, name);
             }
 
         } else {
-            List<String> numbers = new ArrayList<>();
-            numbers.add(number);
-            contacts.put(name, numbers);
-            saveContacts(contacts);
+            addNumber(contacts, name, number);
             System.out.printf("Successfully added contact '%s' !\n", name);
         }
+        Metrics.record("add", start);
 
         System.out.println();
         System.out.println("Type a command or 'exit' to quit. For a list of valid commands use 'help':");
     }
 
-    private static void editContact(Map<String, List<String>> contacts, Scanner input) {
+    private static void editContact(ContactStore contacts, Scanner input) {
         System.out.println("Enter name of the contact you would like to modify:");
         String name = input.nextLine().trim();
 
-        if (contacts.containsKey(name)) {
-            List<String> numbers = new ArrayList<>(contacts.get(name));
+        if (contacts.contains(name)) {
+            List<String> numbers = new ArrayList<>(contacts.numbers(name));
             System.out.printf("Current number(s) for %s:\n", name);
             for (String number : numbers) {
                 System.out.println(number);
@@ -199,9 +500,14 @@ public class PhoneBook {
                     System.out.println("Enter new number:");
                     String number = input.nextLine().trim();
                     if (number.matches("^\\+?[0-9 ]{3,25}$")) {
-                        contacts.get(name).add(number);
-                        saveContacts(contacts);
-                        System.out.printf("Number %s was successfully added, record updated!\n", number);
+                        long start = System.nanoTime();
+                        boolean added = addNumber(contacts, name, number);
+                        Metrics.record("edit", start);
+                        if (!added) {
+                            System.out.printf("Number %s already available for contact '%s'.\n", number, name);
+                        } else {
+                            System.out.printf("Number %s was successfully added, record updated!\n", number);
+                        }
                         break;
                     } else {
                         System.out.println("Number may contain only '+', spaces and digits. Min length 3, max length 25.");
@@ -212,12 +518,23 @@ public class PhoneBook {
             if (delNumber) {
                 while (true) {
                     System.out.println("Enter the number you want to delete:");
-                    String number = input.nextLine().trim();
-                    if (numbers.contains(number)) {
-                        numbers.remove(number);
-                        contacts.put(name, numbers);
-                        saveContacts(contacts);
+                    String number = ContactStore.normalize(input.nextLine().trim());
+                    String match = null;
+                    for (String existing : numbers) {
+                        if (ContactStore.normalize(existing).equals(number)) {
+                            match = existing;
+                        }
+                    }
+                    if (match != null) {
+                        numbers.remove(match);
+                        number = match;
+                        long start = System.nanoTime();
+                        removeNumber(contacts, name, number);
+                        Metrics.record("edit", start);
                         System.out.printf("Number %s was removed from the record for '%s'\n", number, name);
+                        if (!contacts.contains(name)) {
+                            System.out.printf("Contact '%s' had no numbers left and was deleted.\n", name);
+                        }
                         break;
                     } else {
                         System.out.printf("Number does not exist! Current number(s) for %s:\n", name);
@@ -236,19 +553,20 @@ public class PhoneBook {
         System.out.println("Type a command or 'exit' to quit. For a list of valid commands use 'help':");
     }
 
-    private static void deleteContact(Map<String, List<String>> contacts, Scanner input) {
+    private static void deleteContact(ContactStore contacts, Scanner input) {
         System.out.println("Enter name of the contact to be deleted:");
         String name = input.nextLine().trim();
 
-        if (contacts.containsKey(name)) {
+        if (contacts.contains(name)) {
             System.out.printf("Contact '%s' will be deleted. Are you sure? [Y/N]:\n", name);
             String confirmation = input.nextLine().trim().toLowerCase();
             confirm:
             while (true) {
                 switch (confirmation) {
                     case "y":
-                        contacts.remove(name);
-                        saveContacts(contacts);
+                        long start = System.nanoTime();
+                        removeContact(contacts, name);
+                        Metrics.record("delete", start);
                         System.out.println("Contact was deleted successfully!");
                         break confirm;
                     case "n":
@@ -268,47 +586,326 @@ public class PhoneBook {
         System.out.println("Type a command or 'exit' to quit. For a list of valid commands use 'help':");
     }
 
+    private static String askPath(Scanner input) {
+        System.out.println("Enter the path of the CSV file:");
+        return input.nextLine().trim();
+    }
+
+    private static void packContacts(ContactStore contacts) {
+        try {
+            long start = System.nanoTime();
+            ContactImage.write(Paths.get(IMAGE_PATH), contacts);
+            Metrics.record("pack", start);
+            System.out.printf("Phone book packed into %s (%d contacts).\n", IMAGE_PATH, contacts.size());
+        } catch (IOException ioex) {
+            System.err.println("Could not write phone book image: " + ioex.getMessage());
+        }
+    }
+
+    private static void compressContacts(ContactStore contacts) {
+        try {
+            long start = System.nanoTime();
+            long bytes = ContactBlocks.write(Paths.get(BLOCKS_PATH), contacts);
+            Metrics.record("compress", start);
+            System.out.printf("Phone book compressed into %s (%d contacts, %d bytes).\n", BLOCKS_PATH, contacts.size(), bytes);
+        } catch (IOException ioex) {
+            System.err.println("Could not write phone book block file: " + ioex.getMessage());
+        }
+    }
+
+    private static void unpackContacts(ContactSource contacts) {
+        if (saveContacts(contacts.entries())) {
+            System.out.printf("Phone book unpacked into %s.\n", DATA_PATH);
+        }
+    }
+
+    private static void serve(ContactStore contacts, int port) {
+        try (PhoneBookServer server = new PhoneBookServer(contacts, port)) {
+            System.out.printf("Serving %d contacts on 127.0.0.1:%d, stop with Ctrl+C.\n", contacts.size(), server.port());
+            server.serve();
+        } catch (IOException ioex) {
+            System.err.println("Phone book server failed: " + ioex.getMessage());
+        }
+    }
+
+    // the server's dispatcher thread keeps the process alive after main returns, until Ctrl+C
+    private static void serveHttp(ContactStore contacts, int port) {
+        try {
+            PhoneBookHttpServer server = new PhoneBookHttpServer(contacts, port);
+            Runtime.getRuntime().addShutdownHook(new Thread(server::close));
+            server.start();
+            System.out.printf("Serving %d contacts on http://127.0.0.1:%d/, stop with Ctrl+C.\n", contacts.size(), server.port());
+        } catch (IOException ioex) {
+            System.err.println("Phone book HTTP server failed: " + ioex.getMessage());
+        }
+    }
+
+    private static ContactCache cache(ContactSource contacts) {
+        ContactCache cached = new ContactCache(contacts, Runtime.getRuntime().maxMemory() / CACHE_HEAP_FRACTION);
+        Metrics.cache(cached);
+        return cached;
+    }
+
+    private static void runBatch(ContactStore contacts) throws IOException {
+        journal.setSyncEvery(0);
+
+        BufferedReader in = new BufferedReader(new InputStreamReader(System.in, StandardCharsets.UTF_8), 1 << 16);
+        PrintWriter out = new PrintWriter(new BufferedWriter(
+                new OutputStreamWriter(new FileOutputStream(FileDescriptor.out), StandardCharsets.UTF_8), 1 << 20));
+        try {
+            String line;
+            while ((line = in.readLine()) != null) {
+                if (line.trim().equals("flush")) {
+                    journal.sync();
+                    out.flush();
+                } else if (!LineCommands.execute(contacts, line, out)) {
+                    break;
+                }
+            }
+        } finally {
+            journal.sync();
+            out.flush();
+        }
+    }
+
+    /**
+     * The directory the phone book was split into, or null while the CSV and the journal are the phone book.
+     */
+    private static Path shardDirectory() {
+        Path marker = Paths.get(SHARDS_PATH);
+        if (!Files.exists(marker)) {
+            return null;
+        }
+        try {
+            return Paths.get(Files.readString(marker, StandardCharsets.UTF_8).trim());
+        } catch (IOException ioex) {
+            System.err.println("Could not read " + SHARDS_PATH + ": " + ioex.getMessage());
+            System.exit(1);
+            return null;
+        }
+    }
+
+    private static void markSharded(Path directory) throws IOException {
+        Path marker = Paths.get(SHARDS_PATH);
+        Path temp = marker.resolveSibling(marker.getFileName() + ".tmp");
+        try (FileChannel file = FileChannel.open(temp, StandardOpenOption.CREATE, StandardOpenOption.WRITE,
+                StandardOpenOption.TRUNCATE_EXISTING)) {
+            ByteBuffer written = ByteBuffer.wrap((directory + "\n").getBytes(StandardCharsets.UTF_8));
+            while (written.hasRemaining()) {
+                file.write(written);
+            }
+            file.force(true);
+        }
+        replaceFile(temp, marker);
+    }
+
+    private static void runShards(String directory, int count) {
+        Path shards = Paths.get(directory);
+        Path kept = shardDirectory();
+        if (kept != null && !kept.toAbsolutePath().normalize().equals(shards.toAbsolutePath().normalize())) {
+            System.err.printf("The phone book is kept in shards in %s, not in %s.\n", kept, directory);
+            return;
+        }
+
+        try {
+            // until the marker is written the CSV is the phone book, so an interrupted split is done again
+            if (kept == null) {
+                long start = System.nanoTime();
+                long rows = ShardedContacts.split(Paths.get(DATA_PATH), shards, count);
+                markSharded(shards);
+                System.out.printf("Split %d rows of %s into %d shards in %s in %.2f s.\n",
+                        rows, DATA_PATH, count, directory, (System.nanoTime() - start) / 1e9);
+                System.out.printf("The phone book is kept in %s from now on, %s is no longer read.\n", directory, DATA_PATH);
+            }
+        } catch (IOException ioex) {
+            System.err.println("Could not split the phone book into shards: " + ioex.getMessage());
+            return;
+        }
+
+        try {
+            journal = new ContactJournal(JOURNAL_PATH);
+        } catch (IOException ioex) {
+            System.err.println("Could not open the journal: " + ioex.getMessage());
+            return;
+        }
+
+        // half the heap for loaded shards leaves room for the shard being loaded and its garbage
+        try (ShardedContacts contacts = new ShardedContacts(shards, journal, Runtime.getRuntime().maxMemory() / 2)) {
+            // changes since the split, or since the shards were last flushed, are only in the journal
+            int replayed = contacts.recover();
+            if (replayed > 0) {
+                System.out.printf("Replayed %d journal records into the shards.\n", replayed);
+            }
+            journal.setSyncEvery(FLUSH_RECORDS);
+            changes = new ChangeStream(journal);
+            flusher.scheduleWithFixedDelay(PhoneBook::flushJournal, FLUSH_INTERVAL_MS, FLUSH_INTERVAL_MS, TimeUnit.MILLISECONDS);
+            Runtime.getRuntime().addShutdownHook(new Thread(PhoneBook::flushJournal));
+            System.out.printf("Serving %d shards from %s, type 'help' for commands.\n", contacts.shards(), directory);
+            ContactCache cached = cache(contacts);
+
+            BufferedReader in = new BufferedReader(new InputStreamReader(System.in, StandardCharsets.UTF_8));
+            PrintWriter out = new PrintWriter(new OutputStreamWriter(System.out, StandardCharsets.UTF_8));
+            String line;
+            while ((line = in.readLine()) != null) {
+                if (line.trim().equals("flush")) {
+                    contacts.flush();
+                } else if (!LineCommands.execute(cached, line, out)) {
+                    break;
+                }
+                out.flush();
+            }
+        } catch (IOException | UncheckedIOException ioex) {
+            System.err.println("Sharded phone book failed: " + ioex.getMessage());
+        }
+        flushJournal();
+    }
+
     public static void main(String[] args) {
 
+        if (args.length > 0 && args[0].equals("--batch")) {
+            ContactStore contacts = new ContactStore();
+            loadContacts(contacts);
+            try {
+                runBatch(contacts);
+            } catch (IOException ioex) {
+                System.err.println("Batch failed: " + ioex.getMessage());
+            }
+            flushJournal();
+            compactor.shutdown();
+            return;
+        }
+
+        if (args.length > 1 && args[0].equals("--shards")) {
+            runShards(args[1], args.length > 2 ? Integer.parseInt(args[2]) : SHARD_COUNT);
+            compactor.shutdown();
+            return;
+        }
+
+        if (args.length > 0 && args[0].equals("--serve")) {
+            ContactStore contacts = new ContactStore();
+            loadContacts(contacts);
+            serve(contacts, args.length > 1 ? Integer.parseInt(args[1]) : SERVER_PORT);
+            flushJournal();
+            compactor.shutdown();
+            return;
+        }
+
+        if (args.length > 0 && args[0].equals("--http")) {
+            ContactStore contacts = new ContactStore();
+            loadContacts(contacts);
+            serveHttp(contacts, args.length > 1 ? Integer.parseInt(args[1]) : HTTP_PORT);
+            flushJournal();
+            compactor.shutdown();
+            return;
+        }
+
+        if (args.length == 0 && shardDirectory() != null) {
+            runShards(shardDirectory().toString(), SHARD_COUNT);
+            compactor.shutdown();
+            return;
+        }
+
         System.out.println("PHONE BOOK (ver 0.2)");
         System.out.println("===========================");
         System.out.println("Type a command or 'exit' to quit:");
         listCommands();
         System.out.print("> ");
 
-        Map<String, List<String>> contacts = new TreeMap<>();
-        loadContacts(contacts);
+        ContactStore contacts = null;
+        ContactSource source;
+        if (args.length > 0 && args[0].equals("--image")) {
+            try {
+                source = cache(ContactImage.open(Paths.get(args.length > 1 ? args[1] : IMAGE_PATH)));
+            } catch (IOException ioex) {
+                System.err.println("Could not open phone book image: " + ioex.getMessage());
+                return;
+            }
+        } else if (args.length > 0 && args[0].equals("--blocks")) {
+            try {
+                source = cache(ContactBlocks.open(Paths.get(args.length > 1 ? args[1] : BLOCKS_PATH)));
+            } catch (IOException ioex) {
+                System.err.println("Could not open phone book block file: " + ioex.getMessage());
+                return;
+            }
+        } else {
+            contacts = new ContactStore();
+            loadContacts(contacts);
+            source = contacts;
+        }
 
         Scanner input = new Scanner(System.in);
         String line = input.nextLine().trim();
 
         while (!line.equals("exit")) {
 
-            switch (line) {
-                case "list":
-                    listContacts(contacts);
-                    break;
-                case "show":
-                    showContact(contacts, input);
-                    break;
-                case "find":
-                    findContact(contacts, input);
-                    break;
-                case "add":
-                    addContact(contacts, input);
-                    break;
-                case "edit":
-                    editContact(contacts, input);
-                    break;
-                case "delete":
-                    deleteContact(contacts, input);
-                    break;
-                case "help":
-                    listCommands();
-                    break;
-                default:
-                    System.out.println("Invalid command!");
-                    break;
+            int space = line.indexOf(' ');
+            String command = space < 0 ? line : line.substring(0, space);
+            String argument = space < 0 ? "" : line.substring(space + 1).trim();
+
+            if (contacts == null && STORE_COMMANDS.contains(command)) {
+                System.out.println("This phone book is read-only, this command is not available!");
+            } else {
+                switch (command) {
+                    case "list":
+                        listContacts(source, argument);
+                        break;
+                    case "show":
+                        showContact(source, input);
+                        break;
+                    case "fuzzy":
+                        fuzzyContact(contacts, input);
+                        break;
+                    case "find":
+                        findContact(source, input);
+                        break;
+                    case "search":
+                        searchNumbers(contacts, input);
+                        break;
+                    case "add":
+                        addContact(contacts, input);
+                        break;
+                    case "edit":
+                        editContact(contacts, input);
+                        break;
+                    case "delete":
+                        deleteContact(contacts, input);
+                        break;
+                    case "import":
+                        importContacts(contacts, argument.isEmpty() ? askPath(input) : argument);
+                        break;
+                    case "export":
+                        exportContacts(contacts, argument.isEmpty() ? askPath(input) : argument);
+                        break;
+                    case "pack":
+                        packContacts(contacts);
+                        break;
+                    case "compress":
+                        compressContacts(contacts);
+                        break;
+                    case "unpack":
+                        if (contacts == null) {
+                            unpackContacts(source);
+                        } else {
+                            System.out.println("No phone book image or block file is opened!");
+                        }
+                        break;
+                    case "stats":
+                        PrintWriter out = new PrintWriter(System.out);
+                        Metrics.command(argument, out);
+                        out.flush();
+                        break;
+                    case "changes":
+                        PrintWriter changed = new PrintWriter(System.out);
+                        LineCommands.changes(argument, changed);
+                        changed.flush();
+                        break;
+                    case "help":
+                        listCommands();
+                        break;
+                    default:
+                        System.out.println("Invalid command!");
+                        break;
+                }
             }
 
 
@@ -316,6 +913,10 @@ public class PhoneBook {
             line = input.nextLine().trim();
         }
 
+        if (contacts != null) {
+            flushJournal();
+        }
+        compactor.shutdown();
         System.out.println("'Phone Book 0.2' terminated.");
     }
 }
@@ -0,0 +1,184 @@
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+
+import java.io.*;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.URLDecoder;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+
+/**
+ * JSON lookup API over HTTP for other services, on the JDK's built-in server:
+ *
+ * GET /contacts/{name}: the contact's numbers, 404 when unknown.
+ * GET /numbers/{number}: the names owning the number, 404 when nobody does.
+ * POST /numbers: one number per line, at most 10000; answered as one JSON object per line,
+ * streamed in request order.
+ */
+public class PhoneBookHttpServer implements Closeable {
+
+    static final int MAX_BATCH = 10_000;
+
+    static {
+        // the server writes headers and body separately, and with Nagle on every small response
+        // waits out the client's delayed ACK: about 40 ms per request instead of under 1 ms
+        if (System.getProperty("sun.net.httpserver.nodelay") == null) {
+            System.setProperty("sun.net.httpserver.nodelay", "true");
+        }
+    }
+
+    private final ContactSource contacts;
+    private final HttpServer server;
+    private final ExecutorService requests = PhoneBookServer.newConnectionExecutor();
+
+    PhoneBookHttpServer(ContactSource contacts, int port) throws IOException {
+        this.contacts = contacts;
+        this.server = HttpServer.create(new InetSocketAddress(InetAddress.getLoopbackAddress(), port), 128);
+        server.setExecutor(requests);
+        server.createContext("/contacts/", this::contact);
+        server.createContext("/numbers", this::numbers);
+    }
+
+    int port() {
+        return server.getAddress().getPort();
+    }
+
+    void start() {
+        server.start();
+    }
+
+    private void contact(HttpExchange exchange) throws IOException {
+        long start = System.nanoTime();
+        try (exchange) {
+            if (!exchange.getRequestMethod().equals("GET")) {
+                send(exchange, 405, "{\"error\": \"use GET\"}");
+                return;
+            }
+
+            String name = decode(exchange.getRequestURI().getRawPath().substring("/contacts/".length()));
+            if (name == null) {
+                send(exchange, 400, "{\"error\": \"malformed escape in path\"}");
+                return;
+            }
+            List<String> numbers = contacts.numbers(name);
+            if (numbers == null) {
+                send(exchange, 404, "{\"error\": \"not found\"}");
+                return;
+            }
+
+            StringBuilder json = new StringBuilder("{\"name\": ").append(quote(name)).append(", \"numbers\": ");
+            array(json, numbers);
+            send(exchange, 200, json.append('}').toString());
+        } finally {
+            Metrics.record("http-show", start);
+        }
+    }
+
+    private void numbers(HttpExchange exchange) throws IOException {
+        long start = System.nanoTime();
+        try (exchange) {
+            String path = exchange.getRequestURI().getRawPath();
+            if (exchange.getRequestMethod().equals("GET") && path.startsWith("/numbers/")) {
+                String number = decode(path.substring("/numbers/".length()));
+                List<String> owners = number == null ? null : new ArrayList<>(contacts.owners(number));
+                if (owners == null) {
+                    send(exchange, 400, "{\"error\": \"malformed escape in path\"}");
+                } else if (owners.isEmpty()) {
+                    send(exchange, 404, "{\"error\": \"not found\"}");
+                } else {
+                    send(exchange, 200, owner(new StringBuilder(), number, owners).toString());
+                }
+                Metrics.record("http-find", start);
+            } else if (exchange.getRequestMethod().equals("POST") && path.equals("/numbers")) {
+                batch(exchange);
+                Metrics.record("http-batch", start);
+            } else {
+                send(exchange, 404, "{\"error\": \"unknown endpoint\"}");
+            }
+        }
+    }
+
+    private void batch(HttpExchange exchange) throws IOException {
+        List<String> numbers = new ArrayList<>();
+        try (BufferedReader in = new BufferedReader(new InputStreamReader(exchange.getRequestBody(), StandardCharsets.UTF_8))) {
+            String line;
+            while ((line = in.readLine()) != null) {
+                line = line.trim();
+                if (line.isEmpty()) {
+                    continue;
+                }
+                if (numbers.size() == MAX_BATCH) {
+                    send(exchange, 413, "{\"error\": \"at most " + MAX_BATCH + " numbers per request\"}");
+                    return;
+                }
+                numbers.add(line);
+            }
+        }
+
+        // chunked, so the first answers leave before the last lookups are done
+        exchange.getResponseHeaders().set("Content-Type", "application/x-ndjson; charset=utf-8");
+        exchange.sendResponseHeaders(200, 0);
+        try (Writer out = new BufferedWriter(new OutputStreamWriter(exchange.getResponseBody(), StandardCharsets.UTF_8), 1 << 16)) {
+            StringBuilder line = new StringBuilder();
+            for (String number : numbers) {
+                line.setLength(0);
+                owner(line, number, new ArrayList<>(contacts.owners(number))).append('\n');
+                out.append(line);
+            }
+        }
+    }
+
+    private static StringBuilder owner(StringBuilder json, String number, List<String> owners) {
+        json.append("{\"number\": ").append(quote(number)).append(", \"owners\": ");
+        array(json, owners);
+        return json.append('}');
+    }
+
+    private static void array(StringBuilder json, List<String> values) {
+        json.append('[');
+        for (int i = 0; i < values.size(); i++) {
+            json.append(i == 0 ? "" : ", ").append(quote(values.get(i)));
+        }
+        json.append(']');
+    }
+
+    private static String quote(String value) {
+        StringBuilder quoted = new StringBuilder(value.length() + 2).append('"');
+        for (int i = 0; i < value.length(); i++) {
+            char c = value.charAt(i);
+            if (c == '"' || c == '\\') {
+                quoted.append('\\').append(c);
+            } else if (c < 0x20) {
+                quoted.append(String.format("\\u%04x", (int) c));
+            } else {
+                quoted.append(c);
+            }
+        }
+        return quoted.append('"').toString();
+    }
+
+    // path segments are percent-encoded, but unlike form data a '+' is literal there; null when an escape is malformed
+    private static String decode(String segment) {
+        try {
+            return URLDecoder.decode(segment.replace("+", "%2B"), StandardCharsets.UTF_8);
+        } catch (IllegalArgumentException malformed) {
+            return null;
+        }
+    }
+
+    private static void send(HttpExchange exchange, int status, String json) throws IOException {
+        byte[] body = (json + "\n").getBytes(StandardCharsets.UTF_8);
+        exchange.getResponseHeaders().set("Content-Type", "application/json; charset=utf-8");
+        exchange.sendResponseHeaders(status, body.length);
+        exchange.getResponseBody().write(body);
+    }
+
+    @Override
+    public void close() {
+        server.stop(0);
+        requests.shutdown();
+    }
+}
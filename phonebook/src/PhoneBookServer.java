@@ -0,0 +1,84 @@
+import java.io.*;
+import java.net.InetAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.net.SocketException;
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+/**
+ * Serves {@link LineCommands} to many clients over a loopback TCP socket. Every response ends
+ * with a line holding a single '.', so clients can pipeline requests on one connection.
+ */
+public class PhoneBookServer implements Closeable {
+
+    private final ContactStore contacts;
+    private final ServerSocket socket;
+    private final ExecutorService connections = newConnectionExecutor();
+
+    PhoneBookServer(ContactStore contacts, int port) throws IOException {
+        this.contacts = contacts;
+        this.socket = new ServerSocket(port, 128, InetAddress.getLoopbackAddress());
+    }
+
+    /**
+     * One virtual thread per connection where the runtime has them (Java 21+), a cached pool otherwise.
+     */
+    static ExecutorService newConnectionExecutor() {
+        try {
+            return (ExecutorService) Executors.class.getMethod("newVirtualThreadPerTaskExecutor").invoke(null);
+        } catch (ReflectiveOperationException unavailable) {
+            return Executors.newCachedThreadPool(task -> {
+                Thread thread = new Thread(task);
+                thread.setDaemon(true);
+                return thread;
+            });
+        }
+    }
+
+    int port() {
+        return socket.getLocalPort();
+    }
+
+    void serve() throws IOException {
+        while (!socket.isClosed()) {
+            Socket client;
+            try {
+                client = socket.accept();
+            } catch (SocketException closed) {
+                return;
+            }
+            connections.execute(() -> handle(client));
+        }
+    }
+
+    private void handle(Socket client) {
+        try (Socket connection = client;
+             BufferedReader in = new BufferedReader(new InputStreamReader(connection.getInputStream(), StandardCharsets.UTF_8));
+             PrintWriter out = new PrintWriter(new BufferedWriter(new OutputStreamWriter(connection.getOutputStream(), StandardCharsets.UTF_8), 1 << 16))) {
+
+            String line;
+            while ((line = in.readLine()) != null) {
+                boolean open = LineCommands.execute(contacts, line, out);
+                out.println(".");
+                // only flush once the client has no further pipelined requests waiting
+                if (!in.ready()) {
+                    out.flush();
+                }
+                if (!open) {
+                    break;
+                }
+            }
+            out.flush();
+        } catch (IOException ioex) {
+            System.err.println("Connection closed: " + ioex.getMessage());
+        }
+    }
+
+    @Override
+    public void close() throws IOException {
+        socket.close();
+        connections.shutdown();
+    }
+}
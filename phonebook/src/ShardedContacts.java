@@ -0,0 +1,573 @@
+import java.io.BufferedWriter;
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.*;
+
+/**
+ * Phone book split over shard files for books that do not fit in the heap. Contacts are spread by
+ * name hash over {@code names.NNN.csv}, and every number is also filed by the hash of its normalized
+ * form in {@code numbers.NNN.csv}, so show, find and add each load only the shards they touch. Name
+ * shards are kept in name order, one row per contact, so a listing merges them without loading any.
+ *
+ * Shards are loaded into a {@link ContactStore} on first use and kept in least recently used order;
+ * once the estimated size of the loaded shards exceeds the memory budget the oldest ones are written
+ * back if changed and dropped. Every change is also appended to the phone book's {@link ContactJournal},
+ * which {@link #recover()} replays on open. {@link #flush()} writes the changed shards and then
+ * archives the journal they cover, as compaction does for the in-memory store.
+ *
+ * A {@link BloomFilter} saved as {@code contacts.bloom} next to the shards answers most misses without
+ * loading a shard. It is always written before the shards it covers, so it never misses a stored key.
+ */
+public class ShardedContacts implements ContactBook, Closeable {
+
+    // rough retained size of one loaded entry, store and indexes included
+    private static final long BYTES_PER_ENTRY = 400;
+    // a flush rewrites every changed shard, so it waits until enough changes share the cost
+    private static final int FLUSH_RECORDS = 10_000;
+    private static final int BLOCK = 1 << 14;
+
+    private final Path directory;
+    private final int count;
+    private final long budget;
+    private final ContactJournal journal;
+    private final LinkedHashMap<Integer, Shard> loaded = new LinkedHashMap<>(16, 0.75f, true);
+    private final Path filterPath;
+    private BloomFilter known;
+    private boolean filterDirty;
+    private boolean replaying;
+
+    private static final class Shard {
+        final Path path;
+        final ContactStore contacts = new ContactStore();
+        boolean dirty;
+
+        Shard(Path path) {
+            this.path = path;
+        }
+    }
+
+    ShardedContacts(Path directory, ContactJournal journal, long budget) throws IOException {
+        this.directory = directory;
+        this.journal = journal;
+        this.budget = budget;
+        this.count = shardCount(directory);
+        if (count == 0) {
+            throw new IOException("No shards found in " + directory);
+        }
+
+        filterPath = directory.resolve("contacts.bloom");
+        if (Files.exists(filterPath)) {
+            known = BloomFilter.read(filterPath);
+        } else {
+            rebuildFilter();
+        }
+    }
+
+    // streams the name shards from disk, so shards changed in memory must be saved first
+    private void rebuildFilter() throws IOException {
+        long bytes = 0;
+        for (int i = 0; i < count; i++) {
+            bytes += Files.size(namesPath(directory, i));
+        }
+
+        // a row is rarely shorter than 16 bytes and carries a name and a number
+        BloomFilter rebuilt = new BloomFilter(2 * Math.max(bytes / 16, 1024));
+        for (int i = 0; i < count; i++) {
+            new ContactCsvReader(namesPath(directory, i)).read((name, number) -> {
+                rebuilt.add(BloomFilter.NAME, name);
+                rebuilt.add(BloomFilter.NUMBER, ContactStore.normalize(number));
+            });
+        }
+        rebuilt.write(filterPath);
+        known = rebuilt;
+        filterDirty = false;
+    }
+
+    static int shardCount(Path directory) throws IOException {
+        if (!Files.isDirectory(directory)) {
+            return 0;
+        }
+        int count = 0;
+        while (Files.exists(namesPath(directory, count))) {
+            count++;
+        }
+        return count;
+    }
+
+    private static Path namesPath(Path directory, int shard) {
+        return directory.resolve(String.format("names.%03d.csv", shard));
+    }
+
+    private static Path numbersPath(Path directory, int shard) {
+        return directory.resolve(String.format("numbers.%03d.csv", shard));
+    }
+
+    /**
+     * Streams a contacts.csv into {@code count} name shards and as many number shards without
+     * holding the book in memory, sorts the name shards one at a time, and returns the number of
+     * rows read. Shards and the filter left by an earlier split are replaced.
+     */
+    static long split(Path csv, Path directory, int count) throws IOException {
+        Files.createDirectories(directory);
+        Files.deleteIfExists(directory.resolve("contacts.bloom"));
+        for (int i = count; Files.exists(namesPath(directory, i)); i++) {
+            Files.delete(namesPath(directory, i));
+            Files.deleteIfExists(numbersPath(directory, i));
+        }
+
+        BufferedWriter[] names = new BufferedWriter[count];
+        BufferedWriter[] numbers = new BufferedWriter[count];
+        ContactCsvReader reader = new ContactCsvReader(csv);
+        try {
+            for (int i = 0; i < count; i++) {
+                names[i] = Files.newBufferedWriter(namesPath(directory, i), StandardCharsets.UTF_8);
+                numbers[i] = Files.newBufferedWriter(numbersPath(directory, i), StandardCharsets.UTF_8);
+            }
+
+            IOException[] failure = new IOException[1];
+            reader.read((name, number) -> {
+                String line = name + ",\"" + number + "\"\n";
+                try {
+                    names[shard(name, count)].write(line);
+                    numbers[shard(ContactStore.normalize(number), count)].write(line);
+                } catch (IOException ioex) {
+                    failure[0] = ioex;
+                }
+            });
+            if (failure[0] != null) {
+                throw failure[0];
+            }
+        } finally {
+            for (int i = 0; i < count; i++) {
+                if (names[i] != null) {
+                    names[i].close();
+                }
+                if (numbers[i] != null) {
+                    numbers[i].close();
+                }
+            }
+        }
+
+        for (int i = 0; i < count; i++) {
+            ContactStore shard = new ContactStore();
+            new ContactCsvReader(namesPath(directory, i)).read(shard::addNumber);
+            if (!PhoneBook.saveContacts(namesPath(directory, i).toString(), shard.entries())) {
+                throw new IOException("Could not write shard " + namesPath(directory, i));
+            }
+        }
+        return reader.rows();
+    }
+
+    private static int shard(String key, int count) {
+        return Math.floorMod(key.hashCode(), count);
+    }
+
+    private Shard nameShard(String name) {
+        return shard(shard(name, count));
+    }
+
+    private Shard numberShard(String number) {
+        return shard(count + shard(ContactStore.normalize(number), count));
+    }
+
+    private Shard shard(int id) {
+        Shard shard = loaded.get(id);
+        if (shard != null) {
+            return shard;
+        }
+
+        shard = new Shard(id < count ? namesPath(directory, id) : numbersPath(directory, id - count));
+        try {
+            new ContactCsvReader(shard.path).read(shard.contacts::addNumber);
+        } catch (IOException ioex) {
+            throw new UncheckedIOException("Could not load shard " + shard.path, ioex);
+        }
+        loaded.put(id, shard);
+        evict(shard);
+        return shard;
+    }
+
+    private void evict(Shard keep) {
+        long used = 0;
+        for (Shard shard : loaded.values()) {
+            used += shard.contacts.size() * BYTES_PER_ENTRY;
+        }
+
+        Iterator<Shard> oldest = loaded.values().iterator();
+        while (used > budget && oldest.hasNext()) {
+            Shard shard = oldest.next();
+            if (shard == keep) {
+                continue;
+            }
+            save(shard);
+            used -= shard.contacts.size() * BYTES_PER_ENTRY;
+            oldest.remove();
+        }
+    }
+
+    private void save(Shard shard) {
+        if (shard.dirty) {
+            saveFilter();
+            if (!PhoneBook.saveContacts(shard.path.toString(), shard.contacts.entries())) {
+                throw new UncheckedIOException(new IOException("Could not write shard " + shard.path));
+            }
+            shard.dirty = false;
+        }
+    }
+
+    private void saveFilter() {
+        if (filterDirty) {
+            try {
+                known.write(filterPath);
+            } catch (IOException ioex) {
+                throw new UncheckedIOException("Could not write " + filterPath, ioex);
+            }
+            filterDirty = false;
+        }
+    }
+
+    private void saveShards() {
+        saveFilter();
+        for (Shard shard : loaded.values()) {
+            save(shard);
+        }
+    }
+
+    /**
+     * Replays the journal over the shards, which may already hold some of its changes when shards were
+     * written before a crash, and flushes them when there was anything to replay.
+     */
+    synchronized int recover() throws IOException {
+        int replayed;
+        replaying = true;
+        try {
+            replayed = journal.replay(this);
+        } finally {
+            replaying = false;
+        }
+        if (replayed > 0) {
+            saveShards();
+            compactJournal();
+        }
+        return replayed;
+    }
+
+    private void record(char op, String name, String number) {
+        if (replaying) {
+            return;
+        }
+        try {
+            journal.append(op, name, number);
+        } catch (IOException ioex) {
+            System.err.println("Could not write to the journal: " + ioex.getMessage());
+        }
+    }
+
+    private void flushIfDue() {
+        if (!replaying && journal.size() >= FLUSH_RECORDS) {
+            flush();
+        }
+    }
+
+    private void compactJournal() {
+        try {
+            journal.rotate();
+            journal.discardRotated();
+        } catch (IOException ioex) {
+            throw new UncheckedIOException("Could not compact the journal", ioex);
+        }
+    }
+
+    @Override
+    public synchronized boolean isEmpty() {
+        for (int i = 0; i < count; i++) {
+            Shard shard = loaded.get(i);
+            try {
+                if (shard != null ? !shard.contacts.isEmpty() : Files.size(namesPath(directory, i)) > 0) {
+                    return false;
+                }
+            } catch (IOException ioex) {
+                throw new UncheckedIOException(ioex);
+            }
+        }
+        return true;
+    }
+
+    @Override
+    public synchronized List<String> numbers(String name) {
+        if (!known.mightContain(BloomFilter.NAME, name)) {
+            return null;
+        }
+        return nameShard(name).contacts.numbers(name);
+    }
+
+    @Override
+    public synchronized Set<String> owners(String number) {
+        if (!known.mightContain(BloomFilter.NUMBER, ContactStore.normalize(number))) {
+            return Collections.emptySet();
+        }
+        return numberShard(number).contacts.owners(number);
+    }
+
+    /**
+     * Merges the name shard files, each already in name order, so only a block of each is in memory.
+     * Changed shards are written first; changes made while the listing is walked show up once their
+     * shard is written again.
+     */
+    @Override
+    public Iterable<Map.Entry<String, List<String>>> entries(String from) {
+        return () -> {
+            PriorityQueue<ShardCursor> heads = new PriorityQueue<>(Comparator.comparing(ShardCursor::name));
+            synchronized (this) {
+                saveShards();
+                for (int i = 0; i < count; i++) {
+                    ShardCursor cursor = new ShardCursor(namesPath(directory, i), from);
+                    if (cursor.ready()) {
+                        heads.add(cursor);
+                    }
+                }
+            }
+
+            return new Iterator<Map.Entry<String, List<String>>>() {
+                @Override
+                public boolean hasNext() {
+                    return !heads.isEmpty();
+                }
+
+                @Override
+                public Map.Entry<String, List<String>> next() {
+                    ShardCursor cursor = heads.poll();
+                    if (cursor == null) {
+                        throw new NoSuchElementException();
+                    }
+                    synchronized (ShardedContacts.this) {
+                        Map.Entry<String, List<String>> entry = cursor.next();
+                        if (cursor.ready()) {
+                            heads.add(cursor);
+                        }
+                        return entry;
+                    }
+                }
+            };
+        };
+    }
+
+    /**
+     * Reads one name shard a block at a time and opens the file only while reading, so a listing that
+     * is not walked to the end holds no file open. A shard written since the last block is read again
+     * from the start, past the last name handed out.
+     */
+    private static final class ShardCursor {
+        private final Path path;
+        private final String from;
+        private final ContactCsvReader parser;
+        private final ArrayDeque<Map.Entry<String, List<String>>> rows = new ArrayDeque<>();
+        private Object version;
+        private long offset;
+        private String last;
+        private boolean done;
+
+        ShardCursor(Path path, String from) {
+            this.path = path;
+            this.from = from;
+            this.parser = new ContactCsvReader(path);
+        }
+
+        String name() {
+            return rows.getFirst().getKey();
+        }
+
+        boolean ready() {
+            try {
+                while (rows.isEmpty() && !done) {
+                    read();
+                }
+            } catch (IOException ioex) {
+                throw new UncheckedIOException("Could not read shard " + path, ioex);
+            }
+            return !rows.isEmpty();
+        }
+
+        Map.Entry<String, List<String>> next() {
+            Map.Entry<String, List<String>> row = rows.removeFirst();
+            last = row.getKey();
+            return row;
+        }
+
+        private void read() throws IOException {
+            try (FileChannel channel = FileChannel.open(path, StandardOpenOption.READ)) {
+                BasicFileAttributes attributes = Files.readAttributes(path, BasicFileAttributes.class);
+                Object current = attributes.fileKey() != null ? attributes.fileKey() : attributes.lastModifiedTime();
+                if (version != null && !version.equals(current)) {
+                    offset = 0;
+                }
+                version = current;
+
+                long size = channel.size();
+                int capacity = BLOCK;
+                while (offset < size) {
+                    ByteBuffer block = ByteBuffer.allocate((int) Math.min(capacity, size - offset));
+                    ContactJournal.readFully(channel, block, offset);
+                    boolean end = offset + block.limit() == size;
+                    int stop = end ? block.limit() : lastNewline(block) + 1;
+                    if (stop == 0) {
+                        // a single row longer than the block
+                        capacity *= 2;
+                        continue;
+                    }
+
+                    byte[] bytes = block.array();
+                    int start = 0;
+                    for (int i = 0; i < stop; i++) {
+                        if (bytes[i] == '\n') {
+                            parse(bytes, start, i);
+                            start = i + 1;
+                        }
+                    }
+                    if (start < stop) {
+                        parse(bytes, start, stop);
+                    }
+                    offset += stop;
+                    break;
+                }
+                done = offset >= size;
+            }
+        }
+
+        private static int lastNewline(ByteBuffer block) {
+            for (int i = block.limit() - 1; i >= 0; i--) {
+                if (block.get(i) == '\n') {
+                    return i;
+                }
+            }
+            return -1;
+        }
+
+        private void parse(byte[] bytes, int start, int end) {
+            List<String> numbers = new ArrayList<>();
+            String[] name = new String[1];
+            parser.parseLine(bytes, start, end, (contact, number) -> {
+                name[0] = contact;
+                numbers.add(number);
+            });
+            if (name[0] != null && (from == null || name[0].compareTo(from) >= 0)
+                    && (last == null || name[0].compareTo(last) > 0)) {
+                rows.add(new AbstractMap.SimpleImmutableEntry<>(name[0], Collections.unmodifiableList(numbers)));
+            }
+        }
+    }
+
+    @Override
+    public synchronized boolean addNumber(String name, String number) {
+        Shard names = nameShard(name);
+        boolean created = !names.contacts.contains(name);
+        boolean added = names.contacts.addNumber(name, number);
+        // a replayed change can be in one of its shards already, written before the crash, and not the other
+        if (!added && !replaying) {
+            return false;
+        }
+        if (added) {
+            names.dirty = true;
+            known.add(BloomFilter.NAME, name);
+            known.add(BloomFilter.NUMBER, ContactStore.normalize(number));
+            filterDirty = true;
+        }
+
+        Shard numbers = numberShard(number);
+        if (numbers.contacts.addNumber(name, number)) {
+            numbers.dirty = true;
+        }
+        record(created ? ContactJournal.ADD_CONTACT : ContactJournal.ADD, name, number);
+        flushIfDue();
+        return added;
+    }
+
+    @Override
+    public synchronized boolean removeNumber(String name, String number) {
+        if (!known.mightContain(BloomFilter.NAME, name)) {
+            return false;
+        }
+        Shard names = nameShard(name);
+        boolean removed = names.contacts.removeNumber(name, number);
+        if (!removed && !replaying) {
+            return false;
+        }
+        if (removed) {
+            names.dirty = true;
+        }
+
+        Shard numbers = numberShard(number);
+        if (numbers.contacts.removeNumber(name, number)) {
+            numbers.dirty = true;
+        }
+        record(ContactJournal.REMOVE, name, number);
+        if (removed && !names.contacts.contains(name)) {
+            record(ContactJournal.DELETE, name, null);
+        }
+        flushIfDue();
+        return removed;
+    }
+
+    @Override
+    public synchronized boolean removeContact(String name) {
+        if (!known.mightContain(BloomFilter.NAME, name)) {
+            return false;
+        }
+        Shard names = nameShard(name);
+        List<String> owned = names.contacts.numbers(name);
+        if (owned == null) {
+            return false;
+        }
+        names.contacts.removeContact(name);
+        names.dirty = true;
+
+        // journaled number by number too, so a replay can take them out of number shards written without the name shard
+        for (String number : owned) {
+            Shard numbers = numberShard(number);
+            numbers.contacts.removeNumber(name, number);
+            numbers.dirty = true;
+            record(ContactJournal.REMOVE, name, number);
+        }
+        record(ContactJournal.DELETE, name, null);
+        flushIfDue();
+        return true;
+    }
+
+    int shards() {
+        return count;
+    }
+
+    synchronized int loadedShards() {
+        return loaded.size();
+    }
+
+    synchronized void flush() {
+        saveShards();
+        if (known.isFull()) {
+            try {
+                rebuildFilter();
+            } catch (IOException ioex) {
+                throw new UncheckedIOException("Could not rebuild " + filterPath, ioex);
+            }
+        }
+
+        // every journaled change is in the shard files now
+        if (journal.size() > 0) {
+            compactJournal();
+        }
+    }
+
+    @Override
+    public synchronized void close() {
+        flush();
+        loaded.clear();
+    }
+}
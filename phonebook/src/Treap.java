@@ -0,0 +1,204 @@
+import java.util.*;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.function.UnaryOperator;
+
+/**
+ * Immutable sorted map kept as a treap: a binary search tree by key that is also a heap by a random
+ * priority per node, which keeps it balanced in expectation. Changes copy only the path from the root
+ * to the changed node and return a new map sharing everything else with the old one, so a put or
+ * remove costs O(log n) and every map handed out stays a consistent copy at no cost.
+ */
+public class Treap<K, V> {
+
+    private static final class Node<K, V> implements Map.Entry<K, V> {
+        final K key;
+        final V value;
+        final int priority;
+        final Node<K, V> left;
+        final Node<K, V> right;
+
+        Node(K key, V value, int priority, Node<K, V> left, Node<K, V> right) {
+            this.key = key;
+            this.value = value;
+            this.priority = priority;
+            this.left = left;
+            this.right = right;
+        }
+
+        @Override
+        public K getKey() {
+            return key;
+        }
+
+        @Override
+        public V getValue() {
+            return value;
+        }
+
+        @Override
+        public V setValue(V value) {
+            throw new UnsupportedOperationException();
+        }
+    }
+
+    private final Comparator<? super K> order;
+    private final Node<K, V> root;
+    private final int size;
+
+    Treap(Comparator<? super K> order) {
+        this(order, null, 0);
+    }
+
+    private Treap(Comparator<? super K> order, Node<K, V> root, int size) {
+        this.order = order;
+        this.root = root;
+        this.size = size;
+    }
+
+    int size() {
+        return size;
+    }
+
+    boolean isEmpty() {
+        return root == null;
+    }
+
+    V get(K key) {
+        Map.Entry<K, V> entry = entry(key);
+        return entry == null ? null : entry.getValue();
+    }
+
+    /**
+     * The stored entry for {@code key}, so callers can share the key instance the map already holds.
+     */
+    Map.Entry<K, V> entry(K key) {
+        Node<K, V> node = root;
+        while (node != null) {
+            int cmp = order.compare(key, node.key);
+            if (cmp == 0) {
+                return node;
+            }
+            node = cmp < 0 ? node.left : node.right;
+        }
+        return null;
+    }
+
+    Treap<K, V> put(K key, V value) {
+        boolean[] added = new boolean[1];
+        Node<K, V> updated = put(root, key, value, added);
+        return new Treap<>(order, updated, added[0] ? size + 1 : size);
+    }
+
+    private Node<K, V> put(Node<K, V> node, K key, V value, boolean[] added) {
+        if (node == null) {
+            added[0] = true;
+            return new Node<>(key, value, ThreadLocalRandom.current().nextInt(), null, null);
+        }
+
+        int cmp = order.compare(key, node.key);
+        if (cmp == 0) {
+            return new Node<>(node.key, value, node.priority, node.left, node.right);
+        } else if (cmp < 0) {
+            Node<K, V> left = put(node.left, key, value, added);
+            if (left.priority > node.priority) {
+                // rotate the new node above this one
+                return new Node<>(left.key, left.value, left.priority, left.left,
+                        new Node<>(node.key, node.value, node.priority, left.right, node.right));
+            }
+            return new Node<>(node.key, node.value, node.priority, left, node.right);
+        } else {
+            Node<K, V> right = put(node.right, key, value, added);
+            if (right.priority > node.priority) {
+                return new Node<>(right.key, right.value, right.priority,
+                        new Node<>(node.key, node.value, node.priority, node.left, right.left), right.right);
+            }
+            return new Node<>(node.key, node.value, node.priority, node.left, right);
+        }
+    }
+
+    Treap<K, V> remove(K key) {
+        boolean[] removed = new boolean[1];
+        Node<K, V> updated = remove(root, key, removed);
+        return removed[0] ? new Treap<>(order, updated, size - 1) : this;
+    }
+
+    private Node<K, V> remove(Node<K, V> node, K key, boolean[] removed) {
+        if (node == null) {
+            return null;
+        }
+
+        int cmp = order.compare(key, node.key);
+        if (cmp == 0) {
+            removed[0] = true;
+            return merge(node.left, node.right);
+        } else if (cmp < 0) {
+            Node<K, V> left = remove(node.left, key, removed);
+            return left == node.left ? node : new Node<>(node.key, node.value, node.priority, left, node.right);
+        } else {
+            Node<K, V> right = remove(node.right, key, removed);
+            return right == node.right ? node : new Node<>(node.key, node.value, node.priority, node.left, right);
+        }
+    }
+
+    // joins two trees whose keys are all in order, the higher priority root going on top
+    private static <K, V> Node<K, V> merge(Node<K, V> low, Node<K, V> high) {
+        if (low == null) {
+            return high;
+        } else if (high == null) {
+            return low;
+        } else if (low.priority > high.priority) {
+            return new Node<>(low.key, low.value, low.priority, low.left, merge(low.right, high));
+        }
+        return new Node<>(high.key, high.value, high.priority, merge(low, high.left), high.right);
+    }
+
+    /**
+     * Same keys and shape with every value replaced by {@code update} of it, in O(n).
+     */
+    Treap<K, V> replaceValues(UnaryOperator<V> update) {
+        return new Treap<>(order, replaceValues(root, update), size);
+    }
+
+    private static <K, V> Node<K, V> replaceValues(Node<K, V> node, UnaryOperator<V> update) {
+        if (node == null) {
+            return null;
+        }
+        return new Node<>(node.key, update.apply(node.value), node.priority,
+                replaceValues(node.left, update), replaceValues(node.right, update));
+    }
+
+    /**
+     * Entries in key order starting at the first key at or after {@code from}, or at the first key when null.
+     */
+    Iterator<Map.Entry<K, V>> from(K from) {
+        ArrayDeque<Node<K, V>> path = new ArrayDeque<>();
+        Node<K, V> node = root;
+        while (node != null) {
+            if (from == null || order.compare(node.key, from) >= 0) {
+                path.push(node);
+                node = node.left;
+            } else {
+                node = node.right;
+            }
+        }
+
+        return new Iterator<Map.Entry<K, V>>() {
+            @Override
+            public boolean hasNext() {
+                return !path.isEmpty();
+            }
+
+            @Override
+            public Map.Entry<K, V> next() {
+                if (path.isEmpty()) {
+                    throw new NoSuchElementException();
+                }
+                Node<K, V> next = path.pop();
+                for (Node<K, V> child = next.right; child != null; child = child.left) {
+                    path.push(child);
+                }
+                return next;
+            }
+        };
+    }
+}
@@ -0,0 +1,45 @@
+import org.junit.jupiter.api.Test;
+
+import java.io.PrintWriter;
+import java.io.StringWriter;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+class ContactCacheTest {
+
+    private static String show(ContactCache cache, String name) {
+        StringWriter text = new StringWriter();
+        PrintWriter out = new PrintWriter(text);
+        LineCommands.show(cache, name, out);
+        out.flush();
+        return text.toString();
+    }
+
+    @Test
+    void showCountsOneLookup() {
+        ContactStore contacts = new ContactStore();
+        contacts.addNumber("Ann Lee", "+44 20 1234");
+        ContactCache cache = new ContactCache(contacts, 1 << 20);
+
+        assertEquals("Ann Lee\n+44 20 1234\n", show(cache, "Ann Lee").replace("\r\n", "\n"));
+        assertEquals(0, cache.hits());
+        assertEquals(1, cache.misses());
+
+        show(cache, "Ann Lee");
+        assertEquals(1, cache.hits());
+        assertEquals(1, cache.misses());
+    }
+
+    @Test
+    void showOfUnknownNameCountsOneLookup() {
+        ContactCache cache = new ContactCache(new ContactStore(), 1 << 20);
+
+        show(cache, "Bob Ray");
+        assertEquals(0, cache.hits());
+        assertEquals(1, cache.misses());
+
+        show(cache, "Bob Ray");
+        assertEquals(1, cache.hits());
+        assertEquals(1, cache.misses());
+    }
+}
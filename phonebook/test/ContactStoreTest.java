@@ -0,0 +1,74 @@
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.IOException;
+import java.nio.file.Path;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class ContactStoreTest {
+
+    @TempDir
+    Path directory;
+
+    @Test
+    void removingLastNumberDeletesContact() {
+        ContactStore contacts = new ContactStore();
+        contacts.addNumber("Ann Lee", "111");
+        contacts.addNumber("Ann Lee", "222");
+
+        assertTrue(contacts.removeNumber("Ann Lee", "111"));
+        assertEquals(List.of("222"), contacts.numbers("Ann Lee"));
+        assertTrue(contacts.removeNumber("Ann Lee", "222"));
+        assertNull(contacts.numbers("Ann Lee"));
+        assertFalse(contacts.contains("Ann Lee"));
+        assertTrue(contacts.owners("222").isEmpty());
+        assertEquals(0, contacts.size());
+    }
+
+    // the journal replay, the snapshot written by compaction and the load on restart must agree
+    @Test
+    void contactWithoutNumbersStaysGoneAfterCompactionAndRestart() throws IOException {
+        Path csv = directory.resolve("contacts.csv");
+        String journalPath = directory.resolve("contacts.journal").toString();
+
+        ContactStore contacts = new ContactStore();
+        ContactJournal journal = new ContactJournal(journalPath);
+        contacts.addNumber("Ann Lee", "111");
+        journal.append(ContactJournal.ADD_CONTACT, "Ann Lee", "111");
+        contacts.addNumber("Bob Ray", "333");
+        journal.append(ContactJournal.ADD_CONTACT, "Bob Ray", "333");
+        contacts.removeNumber("Ann Lee", "111");
+        journal.append(ContactJournal.REMOVE, "Ann Lee", "111");
+        journal.close();
+
+        // restart without compaction: the journal alone brings the book back
+        ContactStore replayed = new ContactStore();
+        journal = new ContactJournal(journalPath);
+        assertEquals(3, journal.replay(replayed));
+        assertNull(replayed.numbers("Ann Lee"));
+        assertEquals(List.of("333"), replayed.numbers("Bob Ray"));
+
+        // compaction: snapshot the replayed book and drop the journal it covers
+        journal.rotate();
+        assertTrue(PhoneBook.saveContacts(csv.toString(), replayed.entries()));
+        journal.discardRotated();
+        journal.close();
+
+        ContactStore restarted = new ContactStore();
+        ContactCsvReader reader = new ContactCsvReader(csv);
+        reader.readPartials(restarted::addAll);
+        journal = new ContactJournal(journalPath);
+        assertEquals(0, journal.replay(restarted));
+        journal.close();
+
+        assertEquals(0, reader.rejected());
+        assertEquals(1, reader.rows());
+        assertNull(restarted.numbers("Ann Lee"));
+        assertEquals(List.of("333"), restarted.numbers("Bob Ray"));
+    }
+}